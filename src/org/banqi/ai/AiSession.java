@@ -0,0 +1,173 @@
+package org.banqi.ai;
+
+import java.util.List;
+
+import org.banqi.client.BanqiState;
+import org.banqi.client.BitBoard;
+import org.banqi.client.Move;
+import org.banqi.client.StateExplorerImpl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * The AI of one game, kept from one move of the AI to the next so the
+ * knowledge of the searches carries over: the {@link Heuristic} (and its
+ * move generator), the {@link TranspositionTable}, the {@link Ponderer}
+ * filling it on the time of the opponent, the killer moves and the history
+ * of the quiet moves ({@link MoveHistory}), and the principal variation of
+ * the last search, whose move is searched first when the opponent plays the
+ * reply it expects.
+ * <br>
+ * A session is keyed by the players of the game. The search and the
+ * pondering in progress can be cancelled, e.g. when a new update supersedes
+ * them.
+ */
+public class AiSession {
+  private static final int TABLE_SIZE_BITS = 18;
+  private static final int MAX_VARIATION_LENGTH = 16;
+
+  private final ImmutableList<String> playerIds;
+  private final Heuristic heuristic = new Heuristic();
+  private final StateExplorerImpl stateExplorer = new StateExplorerImpl();
+  private final TranspositionTable transpositionTable;
+  private final Ponderer ponderer;
+  private final MoveHistory moveHistory = new MoveHistory();
+  private final SearchStatistics statistics = new SearchStatistics();
+  // The principal variation of the last search and the key of the board
+  // before each of its moves
+  private List<Move> principalVariation = ImmutableList.of();
+  private List<Long> variationKeys = ImmutableList.of();
+  // The timer of the search in progress, null if none
+  private TimeManager timeManager;
+
+  public AiSession(List<String> playerIds) {
+    this(playerIds, new TranspositionTable(TABLE_SIZE_BITS));
+  }
+
+  AiSession(List<String> playerIds, TranspositionTable transpositionTable) {
+    this.playerIds = ImmutableList.copyOf(playerIds);
+    this.transpositionTable = transpositionTable;
+    this.ponderer = new Ponderer(heuristic, transpositionTable);
+  }
+
+  /** Whether the session is the one of the game of the players. */
+  public boolean isSessionOf(List<String> playerIds) {
+    return this.playerIds.equals(playerIds);
+  }
+
+  public Heuristic getHeuristic() {
+    return heuristic;
+  }
+
+  /**
+   * Returns the timer of a new search of the state, which {@link #cancel}
+   * times out.
+   *
+   * @param secondsForTurn The numberOfSecondsForTurn of SetTurn, 0 if none.
+   * @param banqiState The state to search.
+   */
+  public TimeManager newTimeManager(int secondsForTurn, BanqiState banqiState) {
+    timeManager = new TimeManager(secondsForTurn, BitBoard.fromState(banqiState));
+    return timeManager;
+  }
+
+  /**
+   * Search the state with {@link AlphaBetaPruning} and the knowledge of the
+   * previous searches, and keep its principal variation for the next search.
+   *
+   * @param banqiState The current state.
+   * @param depth The maximum depth of the search.
+   * @param timeManager The timer returned by {@link #newTimeManager}.
+   * @return bestMove The best move.
+   */
+  public Move findBestMove(BanqiState banqiState, int depth, TimeManager timeManager) {
+    ponderer.stop();
+    AlphaBetaPruning ai =
+        new AlphaBetaPruning(heuristic, banqiState, transpositionTable, statistics);
+    ai.setIterationListener(timeManager);
+    // The previous search was two plies earlier
+    moveHistory.newSearch();
+    ai.setMoveHistory(moveHistory);
+
+    BitBoard board = BitBoard.fromState(banqiState);
+    if (ponderer.isHit(banqiState)) {
+      // The search of the table started by the pondering goes on, and the
+      // depths pondered are skipped if the table still holds the root of the
+      // last one
+      ai.continueSearch();
+      long entry = transpositionTable.probe(board.getKey());
+      int ponderedDepth = ponderer.getPonderedDepth();
+      if (entry != TranspositionTable.NO_ENTRY
+          && TranspositionTable.getDepth(entry) > ponderedDepth) {
+        ai.setStartDepth(ponderedDepth);
+      }
+    }
+
+    int index = variationKeys.indexOf(board.getKey());
+    if (index >= 0) {
+      ai.setFirstMove(principalVariation.get(index));
+    }
+
+    Move bestMove = ai.findBestMove(depth, timeManager);
+    principalVariation = ai.getPrincipalVariation(bestMove, MAX_VARIATION_LENGTH);
+    variationKeys = getVariationKeys(board, principalVariation);
+    this.timeManager = null;
+    return bestMove;
+  }
+
+  /**
+   * Start pondering the state, where the opponent is to move, see
+   * {@link Ponderer#start}.
+   */
+  public void startPondering(BanqiState opponentState) {
+    ponderer.start(opponentState);
+  }
+
+  /**
+   * Ponder for about the milliseconds, see {@link Ponderer#ponder}.
+   *
+   * @return whether there is more to ponder.
+   */
+  public boolean ponder(int milliseconds) {
+    return ponderer.ponder(milliseconds);
+  }
+
+  /** Cancel the search and the pondering in progress. */
+  public void cancel() {
+    ponderer.stop();
+    if (timeManager != null) {
+      timeManager.cancel();
+      timeManager = null;
+    }
+  }
+
+  /** Returns the principal variation of the last search. */
+  public List<Move> getPrincipalVariation() {
+    return principalVariation;
+  }
+
+  public SearchStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Returns the key of the board before each move of the variation, up to
+   * its first turn move: the piece it reveals is unknown.
+   */
+  private List<Long> getVariationKeys(BitBoard board, List<Move> variation) {
+    List<Long> keys = Lists.newArrayList();
+    BitBoard variationBoard = board.copy();
+    for (Move move : variation) {
+      keys.add(variationBoard.getKey());
+      if (move.getType() == Move.Type.TURN) {
+        break;
+      }
+      variationBoard.doMove(
+          stateExplorer.convertToIndex(move.getFrom().getRow(), move.getFrom().getCol()),
+          stateExplorer.convertToIndex(move.getTo().getRow(), move.getTo().getCol()),
+          move.getType(), BitBoard.FACE_DOWN);
+    }
+    return keys;
+  }
+}
@@ -17,22 +17,20 @@
 
 package org.banqi.ai;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Random;
 
 import org.banqi.client.BanqiState;
+import org.banqi.client.BitBoard;
 import org.banqi.client.Color;
 import org.banqi.client.Move;
-import org.banqi.client.Piece;
-import org.banqi.client.Position;
+import org.banqi.client.PackedMove;
+import org.banqi.client.StateExplorerImpl;
 
-import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
  * http://en.wikipedia.org/wiki/Alpha-beta_pruning<br>
@@ -41,6 +39,11 @@ import com.google.common.collect.Lists;
  * value of each move. We first use depth=1, and update the heuristic value of
  * each move, then use depth=2, and so on until we get a timeout or reach
  * maximum depth. <br>
+ * The search is a negamax principal variation search: the scores are from
+ * the point of view of the player to move, the first move of a node is
+ * searched with the full window and the other moves with a null window, and
+ * each iteration of the root starts with an aspiration window around the
+ * score of the previous iteration.<br>
  * If a state has {@link TurnBasedState#whoseTurn} null (which happens in
  * backgammon when we should roll the dice), then I treat all the possible moves
  * with equal probabilities. <br>
@@ -50,14 +53,67 @@ import com.google.common.collect.Lists;
 public class AlphaBetaPruning {
   // A full state where all facedown pieces are revealed by shuffle.
   // The full state is not the real one, so even for the AI, it has 
-  // to "guess"...
-  private BanqiState fullState;
-  private BanqiState state;
+  // to "guess"... When it's null, turning up a piece is a chance node
+  // weighted by the number of face down pieces of each kind and color.
+  private BitBoard fullState;
+  private BitBoard state;
+  // The positions already searched, with their scores and best moves
+  private final TranspositionTable transpositionTable;
+  // The killer moves and the history of the quiet moves which caused cutoffs
+  private MoveHistory moveHistory = new MoveHistory();
   private Heuristic heuristic;
-  private static int turnCount = 0;
-  private static int moveCount = 0;
-  private static int winCaseCount = 0;
-  private static int loseCaseCount = 0;
+  private final StateExplorerImpl stateExplorer = new StateExplorerImpl();
+  // The first depth of the iterative deepening and whether the search starts
+  // a new search of the transposition table
+  private int startDepth = 0;
+  private boolean isNewSearch = true;
+  // The index of the search among the helpers of a parallel search, from 1,
+  // 0 if it is not a helper
+  private int helperIndex = 0;
+  // The counts of all the searches, added to once a search is done
+  private final SearchStatistics statistics;
+  // Told about every completed depth, may be null
+  private IterationListener iterationListener;
+  // The root move searched first, e.g. the one of the previous principal
+  // variation, may be null
+  private Move firstMove;
+  // The score of a win, less the number of plies to the win so that faster
+  // wins score higher. It is far enough from the int bounds that any score
+  // can be negated, and far above any heuristic value.
+  static final int WIN_SCORE = 1000000;
+  // The scores above it are wins, the scores below its negation are losses
+  private static final int WIN_BOUND = WIN_SCORE - 10000;
+  // The bound of the search windows, beyond any score
+  private static final int INFINITY = WIN_SCORE + 1;
+  // The half width of the aspiration window of the root
+  private static final int ASPIRATION_WINDOW = 20;
+  /**
+   * The lead (about a chariot) over the other root moves which the root
+   * tests once the best move stays the same, see
+   * {@link IterationListener#onIterationCompleted}.
+   */
+  public static final int DOMINANCE_MARGIN = 13;
+  // The margin of the delta pruning of the quiescence search, for the
+  // positional change a capture may bring on top of the captured piece
+  private static final int DELTA_MARGIN = 6;
+  // The rank of each type of move (by ordinal) as the reply probed by Star2
+  // when the transposition table has none: captures, moves and then turns
+  private static final int[] PROBE_TYPE_RANKS = {0, 2, 1};
+  // The depths the helpers of a parallel search skip: the helper of index
+  // h skips the depth d when (d + SKIP_PHASES[k]) / SKIP_SIZES[k] is odd,
+  // where k = (h - 1) % 20, so the helpers search different depths at every
+  // iteration
+  private static final int[] SKIP_SIZES =
+      {1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4};
+  private static final int[] SKIP_PHASES =
+      {0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7};
+  // The decay of the heuristic value by the number of pieces turned up
+  private static final double[] DECAY = new double[BitBoard.CELLS + 1];
+  static {
+    for (int i = 0; i < DECAY.length; i++) {
+      DECAY[i] = Math.pow(0.98, i);
+    }
+  }
 
   static class TimeoutException extends RuntimeException {
     private static final long serialVersionUID = 1L;
@@ -67,6 +123,16 @@ public class AlphaBetaPruning {
   static class MoveScore<Move> implements Comparable<MoveScore<Move>> {
     Move move;
     int score;
+    // The depth the score was searched with, -1 if it was not searched
+    int depth = -1;
+
+    MoveScore<Move> copy() {
+      MoveScore<Move> copy = new MoveScore<Move>();
+      copy.move = move;
+      copy.score = score;
+      copy.depth = depth;
+      return copy;
+    }
 
     @Override
     public int compareTo(MoveScore<Move> o) {
@@ -75,13 +141,161 @@ public class AlphaBetaPruning {
   }
 
   public AlphaBetaPruning(Heuristic heuristic, BanqiState banqiState) {
+    this(heuristic, banqiState, new TranspositionTable());
+  }
+
+  public AlphaBetaPruning(Heuristic heuristic, BanqiState banqiState,
+      TranspositionTable transpositionTable) {
+    this(heuristic, banqiState, transpositionTable, new SearchStatistics());
+  }
+
+  public AlphaBetaPruning(Heuristic heuristic, BanqiState banqiState,
+      TranspositionTable transpositionTable, SearchStatistics statistics) {
     this.heuristic = heuristic;
-    this.state = banqiState.copy();
+    this.state = BitBoard.fromState(banqiState);
+    this.transpositionTable = transpositionTable;
+    this.statistics = statistics;
+  }
+
+  public SearchStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Search a determinized world: the face down pieces are revealed as in the
+   * full state (e.g. one returned by {@link #getFullState}) instead of being
+   * searched as chance nodes. Set it to null to search chance nodes again.
+   */
+  public void setFullState(BitBoard fullState) {
+    this.fullState = fullState;
+  }
+
+  /**
+   * Search as a helper of a parallel search (Lazy SMP) sharing the
+   * transposition table with the main search: the iterative deepening skips
+   * some depths, which depend on the index of the helper (from 1), so at
+   * every iteration the helpers search other depths than each other and
+   * than the main search. The parallel search starts the search of the table
+   * ({@link #continueSearch}).
+   */
+  public void setHelper(int helperIndex) {
+    this.helperIndex = helperIndex;
+    continueSearch();
+  }
+
+  /**
+   * Start the iterative deepening at the depth, e.g. the depth a
+   * {@link Ponderer} already completed on the state: the transposition table
+   * holds the results of that depth, so it is completed again at once.
+   * The root of every completed depth is stored in the table with one more
+   * depth, so the table tells whether it still holds them. A start depth
+   * beyond the depth of the search starts at its last depth.
+   */
+  public void setStartDepth(int startDepth) {
+    this.startDepth = startDepth;
+  }
+
+  /**
+   * Store the results in the search of the transposition table in progress
+   * instead of starting a new one ({@link TranspositionTable#newSearch}),
+   * e.g. the one started by a {@link Ponderer}: the entries it stored are
+   * not replaced by shallower entries of this search.
+   */
+  public void continueSearch() {
+    this.isNewSearch = false;
+  }
+
+  /**
+   * Order the quiet moves with the history, e.g. one kept from the previous
+   * searches. The history must not be shared by searches running at the same time.
+   */
+  public void setMoveHistory(MoveHistory moveHistory) {
+    this.moveHistory = moveHistory;
+  }
+
+  /** Tell the listener about every completed depth of the next searches. */
+  public void setIterationListener(IterationListener iterationListener) {
+    this.iterationListener = iterationListener;
+  }
+
+  /**
+   * Search the move first at the root, e.g. the move the principal variation
+   * of the previous search expects, whatever the order of the heuristic.
+   */
+  public void setFirstMove(Move firstMove) {
+    this.firstMove = firstMove;
+  }
+
+  /** Whether the score is a win for the player it belongs to. */
+  public static boolean isWinScore(int score) {
+    return score > WIN_BOUND;
   }
 
   public Move findBestMove(int depth, Timer timer) {
-    boolean isBlack = state.getTurn().isBlack();    
-    
+    return searchMoveScores(depth, timer, false).get(0).move;
+  }
+
+  /**
+   * Search all the possible moves like {@link #findBestMove} and return their
+   * scores from the point of view of the player to move, best move first.
+   * Unlike {@link #findBestMove}, every move is searched with the full window,
+   * so all the scores are exact.
+   * The scores are those of the last completed depth, the moves which were
+   * not searched before the timeout are left out.
+   */
+  public Map<Move, Integer> findMoveScores(int depth, Timer timer) {
+    Map<Move, Integer> moveScores = Maps.newLinkedHashMap();
+    for (MoveScore<Move> moveScore : searchMoveScores(depth, timer, true)) {
+      if (moveScore.depth >= 0) {
+        moveScores.put(moveScore.move, moveScore.score);
+      }
+    }
+    return moveScores;
+  }
+
+  /**
+   * Returns the principal variation of the last search starting with its
+   * best move: the best moves of the positions after it as found in the
+   * transposition table, up to the length. It ends at a turn move, whose
+   * piece is unknown, unless a "fullState" is set.
+   */
+  public List<Move> getPrincipalVariation(Move bestMove, int maxLength) {
+    List<Move> principalVariation = Lists.newArrayList();
+    SearchContext context = new SearchContext(state.copy(), null);
+    int[] possibleMoves = new int[PackedMove.MAX_MOVES];
+    int move = bestMove != null ? PackedMove.fromMove(bestMove) : PackedMove.NONE;
+    while (move != PackedMove.NONE && principalVariation.size() < maxLength) {
+      principalVariation.add(PackedMove.toMove(move));
+      if (PackedMove.isTurn(move) && fullState == null) {
+        break;
+      }
+      doMove(context, move);
+      move = PackedMove.NONE;
+      long entry = transpositionTable.probe(context.board.getKey());
+      if (entry != TranspositionTable.NO_ENTRY && context.board.getWinner() == Color.N) {
+        // Only a legal move, the slot may hold another position with the same key
+        int ttMove = TranspositionTable.getMove(entry);
+        int possibleMoveCount = stateExplorer.getPossibleMoves(context.board, possibleMoves);
+        for (int i = 0; i < possibleMoveCount; i++) {
+          if (possibleMoves[i] == ttMove) {
+            move = ttMove;
+            break;
+          }
+        }
+      }
+    }
+    return principalVariation;
+  }
+
+  /**
+   * Iterative deepening of the root moves. The scores and the order of the
+   * moves of each completed depth are kept, so a timeout in the middle of a
+   * depth does not mix the scores of two depths: the result is the one of
+   * the last completed depth, except that a move the interrupted depth
+   * already proved better than the previous best move is put first.
+   */
+  private List<MoveScore<Move>> searchMoveScores(int depth, Timer timer,
+      boolean isExactScores) {
     // Do iterative deepening (A*), and slow get better heuristic values for the
     // states.
     List<MoveScore<Move>> scores = Lists.newArrayList();
@@ -90,92 +304,532 @@ public class AlphaBetaPruning {
     for (Move move : possibleMoves) {
       MoveScore<Move> score = new MoveScore<Move>();
       score.move = move;
-      score.score = Integer.MIN_VALUE;
-      scores.add(score);
+      score.score = -INFINITY;
+      if (move.equals(firstMove)) {
+        scores.add(0, score);
+      } else {
+        scores.add(score);
+      }
+    }
+
+    // Moves are done and undone in place on a copy, so the state stays intact
+    // even if the search is interrupted by a timeout.
+    SearchContext context = new SearchContext(state.copy(), timer);
+    if (isNewSearch) {
+      transpositionTable.newSearch();
     }
 
+    // The scores of the last completed depth, best move first
+    List<MoveScore<Move>> completedScores = null;
+    // The number of completed depths in a row whose best move is the same
+    int stableIterations = 0;
     try {
 //      long startTime = System.currentTimeMillis();
-      for (int i = 0; i < depth; i++) {
-        // Get the fullState    
-        this.fullState = getFullState(state.copy());
+      for (int i = Math.min(startDepth, depth - 1); i < depth; i++) {
 //        console("Depth " + i + " start's at " + (System.currentTimeMillis() - startTime));
-        for (int j = 0; j < scores.size(); j++) {
-          Move move = null;
-          MoveScore<Move> moveScore = scores.get(j);
-          move = moveScore.move;
-          // Initial the turnCount.
-          turnCount = 0;
-          int score = findMoveScore(makeMove(state, move),
-              i, Integer.MIN_VALUE, Integer.MAX_VALUE, timer);
-          if (!isBlack) {
-            // the scores are from the point of view of the black, so for white
-            // we need to switch.
-            score = -score;
+        if (isSkippedDepth(i)) {
+          continue;
+        }
+        if (isExactScores) {
+          for (MoveScore<Move> moveScore : scores) {
+            moveScore.score = findMoveScore(context, PackedMove.fromMove(moveScore.move), i,
+                -INFINITY, INFINITY);
+            moveScore.depth = i;
           }
-          moveScore.score = score;
+        } else {
+          // Only a listener uses the lead of the best move
+          searchRootMoves(context, scores, i, iterationListener != null && stableIterations > 0);
         }
         // This will give better pruning on the next iteration.
         Collections.sort(scores); 
+        storeRoot(context, scores, i);
+        if (completedScores != null && !scores.isEmpty()
+            && scores.get(0).move.equals(completedScores.get(0).move)) {
+          stableIterations++;
+        } else {
+          stableIterations = 0;
+        }
+        completedScores = copyOf(scores);
+        if (iterationListener != null && !scores.isEmpty()) {
+          // The scores of the other moves are the bounds they failed low on
+          int secondBestScore = scores.size() > 1 ? scores.get(1).score : -INFINITY;
+          iterationListener.onIterationCompleted(i, scores.get(0).move, scores.get(0).score,
+              secondBestScore);
+        }
+        // Do not start a depth which cannot be finished in time
+        if (timer.didSoftTimeout()) {
+          break;
+        }
       }
     } catch (TimeoutException e) {
       // OK, it should happen
+      if (completedScores != null) {
+        scores = getInterruptedScores(completedScores, scores, isExactScores);
+      } else {
+        // Not even the first depth is completed, the moves not searched yet
+        // go last
+        Collections.sort(scores);
+      }
     }
 
-    Collections.sort(scores);
+    statistics.add(context);
     
-    Move bestMove = scores.get(0).move;
+//    console("Total move count: " + statistics.getMoveCount());
+//    console("Win case count: " + statistics.getWinCaseCount());
+//    console("Lose case count: " + statistics.getLoseCaseCount());
     
-//    console("Total move count: " + moveCount);
-//    console("Win case count: " + winCaseCount);
-//    console("Lose case count: " + loseCaseCount);
-    
-    return bestMove;
+    return scores;
+  }
+
+  /** Whether the depth is one the helper skips, see {@link #setHelper}. */
+  private boolean isSkippedDepth(int depth) {
+    if (helperIndex == 0) {
+      return false;
+    }
+    int k = (helperIndex - 1) % SKIP_SIZES.length;
+    return (depth + SKIP_PHASES[k]) / SKIP_SIZES[k] % 2 != 0;
   }
 
   /**
-   * If we get a timeout, then the score is invalid.
+   * Returns the scores of the last completed depth, with the best move of
+   * the interrupted depth first if the interrupted depth changed it: the
+   * root moves put a move first only once it beats the moves searched before
+   * it, so that move is better than the previous best move at the deeper
+   * depth. The exact scores of {@link #findMoveScores} are all kept from the
+   * completed depth, so they are comparable.
    */
-  private int findMoveScore(final BanqiState banqiState,
-      int depth, int alpha, int beta, Timer timer) throws TimeoutException {
-    BanqiState state = banqiState.copy();
-    
-    if (timer.didTimeout()) {
-      throw new TimeoutException();
+  private List<MoveScore<Move>> getInterruptedScores(List<MoveScore<Move>> completedScores,
+      List<MoveScore<Move>> interruptedScores, boolean isExactScores) {
+    MoveScore<Move> interruptedBest = interruptedScores.get(0);
+    if (!isExactScores && interruptedBest.depth > completedScores.get(0).depth) {
+      for (int i = 0; i < completedScores.size(); i++) {
+        if (completedScores.get(i).move.equals(interruptedBest.move)) {
+          completedScores.add(0, completedScores.remove(i));
+          break;
+        }
+      }
+    }
+    return completedScores;
+  }
+
+  /**
+   * Store the root of the completed depth in the transposition table: its
+   * moves were searched with the depth, so the root has one more. The score
+   * of the best move is exact, whatever the window of the other moves.
+   */
+  private void storeRoot(SearchContext context, List<MoveScore<Move>> scores, int depth) {
+    if (scores.isEmpty()) {
+      return;
+    }
+    MoveScore<Move> best = scores.get(0);
+    transpositionTable.store(context.board.getKey(), depth + 1,
+        toTtScore(best.score, context.board.getUndoCount()), TranspositionTable.EXACT,
+        PackedMove.fromMove(best.move));
+  }
+
+  private List<MoveScore<Move>> copyOf(List<MoveScore<Move>> scores) {
+    List<MoveScore<Move>> copy = Lists.newArrayList();
+    for (MoveScore<Move> score : scores) {
+      copy.add(score.copy());
+    }
+    return copy;
+  }
+
+  /**
+   * Search the root moves in an aspiration window around the best score of
+   * the previous iteration. When the best score falls out of the window, the
+   * window is opened on that side and the moves are searched again.
+   */
+  private void searchRootMoves(SearchContext context, List<MoveScore<Move>> scores,
+      int depth, boolean isDominanceTest) throws TimeoutException {
+    int alpha = -INFINITY;
+    int beta = INFINITY;
+    MoveScore<Move> previousBest = scores.get(0);
+    if (previousBest.depth >= 0 && Math.abs(previousBest.score) < WIN_BOUND) {
+      alpha = previousBest.score - ASPIRATION_WINDOW;
+      beta = previousBest.score + ASPIRATION_WINDOW;
     }
 
-    if (depth == 0 || state.getWinner() != Color.N) {
-      if (state.getWinner() == Color.R) {
-        loseCaseCount++;
-      } else if (state.getWinner() == Color.B) {
-        winCaseCount++;
+    while (true) {
+      int score = searchRootMoves(context, scores, depth, alpha, beta, isDominanceTest);
+      if (score <= alpha && alpha > -INFINITY) {
+        alpha = -INFINITY;
+      } else if (score >= beta && beta < INFINITY) {
+        beta = INFINITY;
+      } else {
+        return;
       }
-      
-      return (int) (heuristic.getStateValue(state) * (Math.pow(0.98, turnCount)));
     }
+  }
 
-    Color color = state.getTurn();
-    int scoreSum = 0;
-    int count = 0;
-    Iterable<Move> possibleMoves = heuristic.getOrderedMoves(state);
-    for (Move move : possibleMoves) {
-      count++;
-      int childScore = findMoveScore(makeMove(state, move), depth - 1, alpha, beta, timer);
-      if (color == null) {
-        scoreSum += childScore;
-      } else if (color.isBlack()) {
-        alpha = Math.max(alpha, childScore);
+  /**
+   * Search the root moves in the window like any other node. A move which
+   * beats all the moves searched before it is moved first right away, so the
+   * best move is known even if the search is interrupted. Only the best move
+   * gets an exact score, the other moves get the bound they failed low on.
+   * With the dominance test, the other moves are first searched with a null
+   * window {@link #DOMINANCE_MARGIN} below alpha, so the moves which fail low
+   * on it get that lower bound, and only the others are searched at alpha.
+   */
+  private int searchRootMoves(SearchContext context, List<MoveScore<Move>> scores,
+      int depth, int alpha, int beta, boolean isDominanceTest) throws TimeoutException {
+    for (int j = 0; j < scores.size(); j++) {
+      MoveScore<Move> moveScore = scores.get(j);
+      int move = PackedMove.fromMove(moveScore.move);
+      int score = alpha;
+      boolean isDominated = false;
+      if (isDominanceTest && j > 0 && Math.abs(alpha) < WIN_BOUND) {
+        int dominanceBound = alpha - DOMINANCE_MARGIN;
+        score = findMoveScore(context, move, depth, dominanceBound, dominanceBound + 1);
+        isDominated = score <= dominanceBound;
+      }
+      if (!isDominated) {
+        score = findPvsMoveScore(context, move, j == 0, depth, alpha, beta);
+      }
+      moveScore.score = score;
+      moveScore.depth = depth;
+      if (score > alpha) {
+        alpha = score;
+        scores.add(0, scores.remove(j));
+      }
+      if (alpha >= beta) {
+        break;
+      }
+    }
+    return alpha;
+  }
+
+  /**
+   * If we get a timeout, then the score is invalid and the board is left in
+   * the middle of the search.
+   */
+  private int findMoveScore(SearchContext context,
+      int depth, int alpha, int beta) throws TimeoutException {
+    if (context.timer.didTimeout()) {
+      throw new TimeoutException();
+    }
+
+    BitBoard state = context.board;
+    if (state.getWinner() != Color.N) {
+      return getStateScore(context);
+    } else if (depth == 0) {
+      return findQuiescenceScore(context, alpha, beta);
+    }
+
+    // Look up the position in the transposition table: a deep enough entry
+    // narrows the window or cuts the search, and its best move is searched first.
+    long key = state.getKey();
+    int ply = state.getUndoCount();
+    int originalAlpha = alpha;
+    int originalBeta = beta;
+    int ttMove = TranspositionTable.NO_MOVE;
+    long entry = transpositionTable.probe(key);
+    if (entry != TranspositionTable.NO_ENTRY) {
+      ttMove = TranspositionTable.getMove(entry);
+      if (TranspositionTable.getDepth(entry) >= depth) {
+        int ttScore = fromTtScore(TranspositionTable.getScore(entry), ply);
+        switch (TranspositionTable.getBound(entry)) {
+          case TranspositionTable.EXACT: return ttScore;
+          case TranspositionTable.LOWER_BOUND: alpha = Math.max(alpha, ttScore); break;
+          default: beta = Math.min(beta, ttScore); break;
+        }
         if (beta <= alpha) {
-          break;
+          return ttScore;
+        }
+      }
+    }
+
+    // The moves are generated stage by stage as they are picked, by the
+    // picker of the ply, the children use the pickers of the next plies
+    MovePicker movePicker = context.getMovePicker(ply);
+    movePicker.init(state, ttMove, ply, heuristic, moveHistory);
+    boolean isFirstMove = true;
+    int bestMove = TranspositionTable.NO_MOVE;
+    for (int move = movePicker.nextMove(); move != PackedMove.NONE;
+        move = movePicker.nextMove()) {
+      // At the frontier, the quiescence search would only confirm that a
+      // losing capture loses, so they are skipped unless there is no other move
+      if (depth == 1 && movePicker.isLosingCapture() && !isFirstMove) {
+        break;
+      }
+      int childScore = findPvsMoveScore(context, move, isFirstMove, depth - 1, alpha, beta);
+      if (childScore > alpha || isFirstMove) {
+        bestMove = move;
+      }
+      isFirstMove = false;
+      if (childScore >= beta) {
+        if (!PackedMove.isCapture(move)) {
+          moveHistory.addCutoff(move, ply, depth);
         }
+        alpha = beta;
+        break;
+      }
+      alpha = Math.max(alpha, childScore);
+    }
+    int score = alpha;
+
+    int bound = score <= originalAlpha ? TranspositionTable.UPPER_BOUND
+        : score >= originalBeta ? TranspositionTable.LOWER_BOUND
+        : TranspositionTable.EXACT;
+    transpositionTable.store(key, depth, toTtScore(score, ply), bound, bestMove);
+    return score;
+  }
+
+  /**
+   * Principal variation search of a move: the first move is searched with the
+   * window, the next ones with a null window which only proves they are no
+   * better than alpha, and they are searched again with the window if they
+   * turn out to be better.
+   */
+  private int findPvsMoveScore(SearchContext context, int move, boolean isFirstMove,
+      int depth, int alpha, int beta) throws TimeoutException {
+    if (isFirstMove) {
+      return findMoveScore(context, move, depth, alpha, beta);
+    }
+    int score = findMoveScore(context, move, depth, alpha, alpha + 1);
+    if (score > alpha && score < beta) {
+      score = findMoveScore(context, move, depth, alpha, beta);
+    }
+    return score;
+  }
+
+  /**
+   * Quiescence search: past the depth of the search, keep searching the
+   * captures (the cannon jumps too) until the board is quiet, so the score is
+   * not taken in the middle of an exchange. The player to move may also
+   * "stand pat" with the score of the board instead of capturing, so the
+   * captures which lose the exchange are not searched, and a capture is
+   * skipped when even winning the captured piece for free cannot bring the
+   * score back into the window (delta pruning).
+   */
+  private int findQuiescenceScore(SearchContext context, int alpha, int beta)
+      throws TimeoutException {
+    if (context.timer.didTimeout()) {
+      throw new TimeoutException();
+    }
+
+    BitBoard state = context.board;
+    int standPat = getStateScore(context);
+    if (state.getWinner() != Color.N) {
+      return standPat;
+    }
+
+    if (standPat >= beta) {
+      return beta;
+    }
+    alpha = Math.max(alpha, standPat);
+
+    int ply = state.getUndoCount();
+    int[] captures = context.getMoves(ply);
+    int captureCount = heuristic.getOrderedCaptures(state, 0, captures, context.getScores(ply),
+        context.getExchangeGains());
+    for (int i = 0; i < captureCount; i++) {
+      int capture = captures[i];
+      if (standPat + heuristic.getCapturedValue(state, capture) + DELTA_MARGIN <= alpha) {
+        continue;
+      }
+
+      doMove(context, capture);
+      int score = -findQuiescenceScore(context, -beta, -alpha);
+      state.undoMove();
+
+      if (score >= beta) {
+        return beta;
+      }
+      alpha = Math.max(alpha, score);
+    }
+    return alpha;
+  }
+
+  /**
+   * Returns the score of the board of the search for the player to move: a
+   * won or lost board scores the win less the plies to get there, any other
+   * board the heuristic value decayed by the number of pieces turned up since
+   * the root.
+   */
+  private int getStateScore(SearchContext context) {
+    BitBoard state = context.board;
+    Color winner = state.getWinner();
+    Color turn = state.getTurn();
+    if (winner != Color.N) {
+      if (winner == Color.R) {
+        context.loseCaseCount++;
       } else {
-        beta = Math.min(beta, childScore);
-        if (beta <= alpha) {
-          break;
+        context.winCaseCount++;
+      }
+      int winScore = WIN_SCORE - state.getUndoCount();
+      return winner == turn ? winScore : -winScore;
+    }
+    
+    int turnCount = context.rootFaceDownCount - Integer.bitCount(state.getFaceDownMask());
+    int value = (int) (heuristic.getStateValue(state) * DECAY[turnCount]);
+    return turn.isBlack() ? value : -value;
+  }
+
+  /**
+   * Returns the score of the state after the move for the player making it,
+   * searched with the depth left after the move. A turn move is a chance node
+   * unless a "fullState" is set.
+   */
+  private int findMoveScore(SearchContext context, int move,
+      int depth, int alpha, int beta) throws TimeoutException {
+    if (PackedMove.isTurn(move) && fullState == null) {
+      return findChanceScore(context, PackedMove.getFrom(move), depth, alpha, beta);
+    }
+    doMove(context, move);
+    int score = -findMoveScore(context, depth, -beta, -alpha);
+    context.board.undoMove();
+    return score;
+  }
+
+  /**
+   * Returns the expected score of turning up the face down piece in the cell,
+   * for the player turning it up.
+   * Each outcome is a piece code weighted by the number of face down pieces
+   * of that code left.
+   * The chance node prunes with Star1 bounds: the scores lie in
+   * [-WIN_SCORE, WIN_SCORE], so once some outcomes are searched, the window of
+   * the next outcome is narrowed to the values that can still move the
+   * expected score inside (alpha, beta). With Star2, before that, the first
+   * reply of the opponent is probed in every outcome, which bounds each
+   * outcome from above and may cut the node right away.
+   * Like the other nodes it fails hard: a score <= alpha or >= beta is only a bound.
+   */
+  private int findChanceScore(SearchContext context, int cell,
+      int depth, int alpha, int beta) throws TimeoutException {
+    BitBoard state = context.board;
+    // The counts are read between the outcomes, when the board is restored
+    long total = 0;
+    for (int code = 0; code < BitBoard.PIECE_CODES; code++) {
+      total += state.getFaceDownCount(code);
+    }
+
+    // The bounds of each outcome, tightened by the Star2 probes
+    long[] lowerBounds = new long[BitBoard.PIECE_CODES];
+    long[] upperBounds = new long[BitBoard.PIECE_CODES];
+    long lowerSum = 0;
+    long upperSum = 0;
+    for (int code = 0; code < BitBoard.PIECE_CODES; code++) {
+      lowerBounds[code] = -WIN_SCORE;
+      upperBounds[code] = WIN_SCORE;
+      lowerSum += state.getFaceDownCount(code) * lowerBounds[code];
+      upperSum += state.getFaceDownCount(code) * upperBounds[code];
+    }
+
+    // Star2: the opponent moves after the turn, so any of its replies bounds
+    // the outcome from above.
+    if (depth > 0) {
+      for (int code = 0; code < BitBoard.PIECE_CODES; code++) {
+        long weight = state.getFaceDownCount(code);
+        if (weight == 0) {
+          continue;
+        }
+        doTurnMove(context, cell, code);
+        int probeMove = PackedMove.NONE;
+        if (state.getWinner() == Color.N) {
+          long entry = transpositionTable.probe(state.getKey());
+          probeMove = getProbeMove(context, entry != TranspositionTable.NO_ENTRY
+              ? TranspositionTable.getMove(entry) : TranspositionTable.NO_MOVE);
         }
+        if (probeMove != PackedMove.NONE) {
+          // The outcome cuts the node when it is at most probeAlpha, so the
+          // reply only has to be searched up to -probeAlpha
+          long probeAlpha = floorDiv(total * alpha - (upperSum - weight * upperBounds[code]),
+              weight);
+          int replyScore = findMoveScore(context, probeMove, depth - 1, -INFINITY,
+              (int) Math.max(Math.min(-probeAlpha, INFINITY), -INFINITY + 1));
+          long upperBound = Math.min(upperBounds[code], -replyScore);
+          upperSum += weight * (upperBound - upperBounds[code]);
+          upperBounds[code] = upperBound;
+        }
+        state.undoMove();
+        if (upperSum <= total * alpha) {
+          return alpha;
+        }
+      }
+    }
+
+    // Star1: search every outcome with the window left by the other outcomes.
+    long scoreSum = 0;
+    for (int code = 0; code < BitBoard.PIECE_CODES; code++) {
+      long weight = state.getFaceDownCount(code);
+      if (weight == 0) {
+        continue;
+      }
+      lowerSum -= weight * lowerBounds[code];
+      upperSum -= weight * upperBounds[code];
+      long childAlpha = floorDiv(total * alpha - scoreSum - upperSum, weight);
+      long childBeta = ceilDiv(total * beta - scoreSum - lowerSum, weight);
+
+      doTurnMove(context, cell, code);
+      int score = -findMoveScore(context, depth,
+          (int) -Math.min(childBeta, INFINITY), (int) -Math.max(childAlpha, -INFINITY));
+      state.undoMove();
+
+      if (score <= childAlpha) {
+        return alpha;
+      } else if (score >= childBeta) {
+        return beta;
+      }
+      scoreSum += weight * score;
+    }
+    return (int) (scoreSum / total);
+  }
+
+  /**
+   * Returns the score to store in the transposition table: a win or a loss
+   * is stored as the distance from the position, not from the root.
+   */
+  private static int toTtScore(int score, int ply) {
+    if (score > WIN_BOUND) {
+      return score + ply;
+    } else if (score < -WIN_BOUND) {
+      return score - ply;
+    }
+    return score;
+  }
+
+  /** Returns the score of the position from a score of the transposition table. */
+  private static int fromTtScore(int score, int ply) {
+    if (score > WIN_BOUND) {
+      return score - ply;
+    } else if (score < -WIN_BOUND) {
+      return score + ply;
+    }
+    return score;
+  }
+
+  private static long floorDiv(long dividend, long divisor) {
+    long quotient = dividend / divisor;
+    return quotient * divisor > dividend ? quotient - 1 : quotient;
+  }
+
+  private static long ceilDiv(long dividend, long divisor) {
+    long quotient = dividend / divisor;
+    return quotient * divisor < dividend ? quotient + 1 : quotient;
+  }
+
+  /**
+   * Returns the reply of the board of the search probed by Star2: the best
+   * move found in the transposition table if it is legal, otherwise the first
+   * capture, move or turn, in this order.
+   */
+  private int getProbeMove(SearchContext context, int ttMove) {
+    BitBoard state = context.board;
+    int[] moves = context.getMoves(state.getUndoCount());
+    int moveCount = stateExplorer.getPossibleMoves(state, moves);
+    int probeMove = PackedMove.NONE;
+    for (int i = 0; i < moveCount; i++) {
+      int move = moves[i];
+      if (move == ttMove) {
+        return move;
+      } else if (probeMove == PackedMove.NONE
+          || PROBE_TYPE_RANKS[PackedMove.getType(move).ordinal()]
+              < PROBE_TYPE_RANKS[PackedMove.getType(probeMove).ordinal()]) {
+        probeMove = move;
       }
     }
-    return color == null ? scoreSum / count : color.isBlack() ? alpha : beta;
+    return probeMove;
   }
 
   /**
@@ -185,201 +839,79 @@ public class AlphaBetaPruning {
    * @return state The full state.
    */
   public BanqiState getFullState(BanqiState banqiState) {
-    BanqiState state = banqiState.copy();
-    List<Optional<Piece>> cells = state.getCells();
+    return getFullState(BitBoard.fromState(banqiState)).toState();
+  }
 
-    // All face down pieces waiting to be shuffled
-    List<Piece> faceDownPieces = new ArrayList<Piece>();
-    // All face down piece indexes
-    Queue<Integer> faceDownPieceIndexes = new LinkedList<Integer>();
-    
+  /**
+   * Get the full board by shuffle all face down pieces and reveal them all.
+   * 
+   * @param board The current board.
+   * @return fullBoard The full board.
+   */
+  public BitBoard getFullState(BitBoard board) {
+    BitBoard fullBoard = board.copy();
 
-    // Get all face down piece indexes
-    for (int i = 0; i < cells.size(); i++) {
-      Optional<Piece> cell = cells.get(i);
-      if (!cell.isPresent()) {
-        faceDownPieceIndexes.offer(i);
-      }
-    }
-    
-    // Number of each face down piece
-    Map<String, Integer> faceDownPiecesNum = heuristic
-        .getFaceDownPiecesNum(state);
-
-    // Get all face down pieces
-    for (Map.Entry<String, Integer> entry : faceDownPiecesNum.entrySet()) {
-      switch(entry.getKey()) {
-        case "rsolNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.SOLDIER, Piece.PieceColor.RED));
-          }
-          break;
-        case "bsolNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.SOLDIER, Piece.PieceColor.BLACK));
-          }
-          break;
-        case "rcanNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.CANNON, Piece.PieceColor.RED));
-          }
-          break;
-        case "bcanNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.CANNON, Piece.PieceColor.BLACK));
-          }
-          break;
-        case "rhorNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.HORSE, Piece.PieceColor.RED));
-          }
-          break;
-        case "bhorNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.HORSE, Piece.PieceColor.BLACK));
-          }
-          break;
-        case "rchaNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.CHARIOT, Piece.PieceColor.RED));
-          }
-          break;
-        case "bchaNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.CHARIOT, Piece.PieceColor.BLACK));
-          }
-          break;
-        case "releNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.ELEPHANT, Piece.PieceColor.RED));
-          }
-          break;
-        case "beleNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.ELEPHANT, Piece.PieceColor.BLACK));
-          }
-          break;
-        case "radvNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.ADVISOR, Piece.PieceColor.RED));
-          }
-          break;
-        case "badvNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.ADVISOR, Piece.PieceColor.BLACK));
-          }
-          break;
-        case "rgenNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.GENERAL, Piece.PieceColor.RED));
-          }
-          break;
-        case "bgenNum": 
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.GENERAL, Piece.PieceColor.BLACK));
-          }
-          break;
-        default:  
-          for (int i = 0; i < entry.getValue(); i++) {
-            faceDownPieces
-                .add(new Piece(Piece.Kind.SOLDIER, Piece.PieceColor.RED));
-          }
-          break;
+    // All face down pieces waiting to be shuffled
+    List<Integer> faceDownPieces = Lists.newArrayList();
+    for (int code = 0; code < BitBoard.PIECE_CODES; code++) {
+      for (int i = 0; i < board.getFaceDownCount(code); i++) {
+        faceDownPieces.add(code);
       }
     }
 
-    // Shuffle the face down pieces.
+    // Shuffle the face down pieces and reveal them all.
+    // Warning: It's not the real full state
     Random rnd = new Random();
-    List<Piece> shuffledFaceDownPieces = Lists.newArrayList();
-    while (!faceDownPieces.isEmpty()) {
+    for (int mask = board.getFaceDownMask(); mask != 0; mask &= mask - 1) {
       int index = rnd.nextInt(faceDownPieces.size());
-      shuffledFaceDownPieces.add(faceDownPieces.remove(index));
-    }
-    
-    // Reveal all face down pieces.
-    // Warning: It's not the real full state
-    for (Piece piece : shuffledFaceDownPieces) {
-      int index = faceDownPieceIndexes.remove();
-      cells.set(index, Optional.fromNullable(piece));
+      fullBoard.turnPiece(Integer.numberOfTrailingZeros(mask), faceDownPieces.remove(index));
     }
 
-    state.setCells(cells);
-
-    return state;
+    return fullBoard;
   }
 
   /**
-   * Make the move and return the new state.
+   * Make the move and return the new board.
    * 
-   * @param banqiState The state before the move.
+   * @param board The board before the move.
    * @param move
-   * @return state The state after the move.
+   * @return state The board after the move.
    */
-  public BanqiState makeMove(final BanqiState banqiState, Move move) {
-    
-    moveCount++;
-    
-    BanqiState state = banqiState.copy();
-    
-    List<Optional<Piece>> cells = state.getCells();
-    List<Piece> capturedPieces = state.getCapturedPieces();
-    Position from = move.getFrom();
-    Position to = move.getTo();
-
-    // Change the state according to the move and "fullState".
-    if (move.getType() == Move.Type.CAPTURE) {
-      int fromIndex = convertToIndex(from.getRow(), from.getCol());
-      int toIndex = convertToIndex(to.getRow(), to.getCol());
-      Optional<Piece> fromPiece = cells.get(fromIndex);
-      Optional<Piece> toPiece = cells.get(toIndex);
-      Optional<Piece> emptyCell = Optional.fromNullable(new Piece(
-          Piece.Kind.EMPTY, Piece.PieceColor.EMPTY));
-      // Set the new state
-      cells.set(fromIndex, emptyCell);
-      cells.set(toIndex, fromPiece);
-      state.setCells(cells);
-      // Set the captured pieces list
-      capturedPieces.add(toPiece.get());
-      state.setCapturedPieces(capturedPieces);
-    } else if (move.getType() == Move.Type.TURN) {
-      turnCount++;
-      int index = convertToIndex(from.getRow(), from.getCol());
-      List<Optional<Piece>> fullCells = fullState.getCells();
-      
+  public BitBoard makeMove(final BitBoard board, Move move) {
+    SearchContext context = new SearchContext(board.copy(), null);
+    doMove(context, PackedMove.fromMove(move));
+    return context.board;
+  }
+
+  /**
+   * Do the move in place on the board of the search, a face down piece is revealed as the
+   * piece of the "fullState". Undo it with {@link BitBoard#undoMove()}.
+   * 
+   * @param context The search, whose board the move is done on.
+   * @param move The packed move, see {@link PackedMove}.
+   */
+  private void doMove(SearchContext context, int move) {
+    int from = PackedMove.getFrom(move);
+
+    if (PackedMove.isTurn(move)) {
       // Get the piece from the full state
-      Piece turnPiece = fullCells.get(index).get();
-      cells.set(index, Optional.fromNullable(turnPiece));
-      state.setCells(cells);
+      doTurnMove(context, from, fullState.getCell(from));
     } else {
-      int fromIndex = convertToIndex(from.getRow(), from.getCol());
-      int toIndex = convertToIndex(to.getRow(), to.getCol());
-      Optional<Piece> fromPiece = cells.get(fromIndex);
-      Optional<Piece> toPiece = cells.get(toIndex);
-
-      cells.set(fromIndex, toPiece);
-      cells.set(toIndex, fromPiece);
-      state.setCells(cells);
+      context.moveCount++;
+      // Change the board according to the move, and set the turn to the next player.
+      context.board.doMove(from, PackedMove.getTo(move), PackedMove.getType(move),
+          BitBoard.FACE_DOWN);
     }
-    
-    // Set the turn to the next player
-    state.setNextTurn();
-    
-    return state;
-  };
+  }
+
+  /**
+   * Turn up the face down piece in the cell as the piece code in place on the
+   * board of the search. Undo it with {@link BitBoard#undoMove()}.
+   */
+  private void doTurnMove(SearchContext context, int cell, int code) {
+    context.moveCount++;
+    context.board.doMove(cell, cell, Move.Type.TURN, code);
+  }
 
   // Convert the row(1-4)/col(1-8) coordinate to gameApi coodinate(0-31)
   public int convertToIndex(int row, int col) {
@@ -43,4 +43,10 @@ public class DateTimer implements Timer {
   public boolean didTimeout() {
     return milliseconds <= 0 ? false : now() > start + milliseconds;
   }
+
+  /** There is no soft deadline, so it is the same as the deadline. */
+  @Override
+  public boolean didSoftTimeout() {
+    return didTimeout();
+  }
 }
\ No newline at end of file
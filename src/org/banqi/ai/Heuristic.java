@@ -19,50 +19,37 @@ package org.banqi.ai;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.banqi.client.BanqiState;
+import org.banqi.client.BitBoard;
 import org.banqi.client.Color;
 import org.banqi.client.Move;
+import org.banqi.client.PackedMove;
 import org.banqi.client.Piece;
 import org.banqi.client.StateExplorerImpl;
 
-import com.google.common.base.Optional;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Maps;
-
 public class Heuristic {
   private final StateExplorerImpl stateExplorer = new StateExplorerImpl();
-  // Basic value of each kind of piece, note that although cannon is vunlunrable to most pieces,
-  // it also can capture all kinds of pieces, so it has a relatively high value.
-  private static final int VALUEOFSOLDIER = 1;
-  private static final int VALUEOFHORSE = 6;
-  private static final int VALUEOFCHARIOT = 13;
-  private static final int VALUEOFELEPHANT = 27;
-  private static final int VALUEOFCANNON = 55;
-  private static final int VALUEOFADVISOR = 55;
-  private static final int VALUEOFGENERAL = 111;
-  private static final Map<String, Integer> FACEDOWNPIECESNUMBER =
-      ImmutableMap.<String, Integer>builder()
-      .put("rsolNum", 5)
-      .put("bsolNum", 5)
-      .put("rcanNum", 2)
-      .put("bcanNum", 2)
-      .put("rhorNum", 2)
-      .put("bhorNum", 2)
-      .put("rchaNum", 2)
-      .put("bchaNum", 2)
-      .put("releNum", 2)
-      .put("beleNum", 2)
-      .put("radvNum", 2)
-      .put("badvNum", 2)
-      .put("rgenNum", 1)
-      .put("bgenNum", 1)
-      .build();
+  // Basic value of each kind of piece, see BitBoard#getKindValue
+  private static final int VALUEOFSOLDIER = getKindValue(Piece.Kind.SOLDIER);
+  private static final int VALUEOFHORSE = getKindValue(Piece.Kind.HORSE);
+  private static final int VALUEOFCHARIOT = getKindValue(Piece.Kind.CHARIOT);
+  private static final int VALUEOFELEPHANT = getKindValue(Piece.Kind.ELEPHANT);
+  private static final int VALUEOFCANNON = getKindValue(Piece.Kind.CANNON);
+  private static final int VALUEOFADVISOR = getKindValue(Piece.Kind.ADVISOR);
+  private static final int VALUEOFGENERAL = getKindValue(Piece.Kind.GENERAL);
+  // Above the value of any piece, so the order score of a capture is its net
+  // gain first and then the captured value
+  private static final int CAPTURED_VALUE_BOUND = 128;
       
   public Heuristic() {
   }
+
+  /** Returns the basic value of the kind. */
+  private static int getKindValue(Piece.Kind kind) {
+    return BitBoard.getKindValue(kind.ordinal());
+  }
   
   /**
    * Get the value of the current state.
@@ -71,28 +58,26 @@ public class Heuristic {
    * @return stateValue The value of the state.
    */
   public int getStateValue(final BanqiState state) {
-    int faceDownPiecesValue = 0;
-    int faceUpPiecesValue = 0;
-    
+    return getStateValue(BitBoard.fromState(state));
+  }
+
+  /**
+   * Get the value of the current board.
+   * 
+   * @param board The board for evaluation.
+   * @return stateValue The value of the board.
+   */
+  public int getStateValue(final BitBoard board) {
     // The game is over
-    Color winnerColor = state.getWinner();
+    Color winnerColor = board.getWinner();
     if (winnerColor == Color.R) {
       return Integer.MIN_VALUE;
     } else if (winnerColor == Color.B) {
       return Integer.MAX_VALUE;
     }
-    
-    // Get the total value of all face down pieces
-    faceDownPiecesValue = getFaceDownPieceValue(state);
-    
-    // Get the total value of all face up pieces
-    for (Optional<Piece> piece : state.getCells()) {
-      if (piece.isPresent() && piece.get().getKind() != Piece.Kind.EMPTY) {
-        faceUpPiecesValue += getFaceUpPieceValue(piece.get());
-      }
-    }
-    
-    return faceUpPiecesValue + faceDownPiecesValue;
+
+    // The total value of all face up and face down pieces, kept by the board
+    return board.getMaterial();
   }
 
   /**
@@ -106,14 +91,16 @@ public class Heuristic {
    * @return orderedMoves The ordered all possible moves.
    */
   public Iterable<Move> getOrderedMoves(final BanqiState banqiState) {    
+    // Get all possible moves
+    return orderMoves(stateExplorer.getPossibleMoves(banqiState));
+  }
+
+  private Iterable<Move> orderMoves(Set<Move> allPossibleMoves) {
     List<Move> orderedMoves = new ArrayList<Move>();
     List<Move> captureMoves = new ArrayList<Move>();
     List<Move> moveMoves = new ArrayList<Move>();
     List<Move> turnMoves = new ArrayList<Move>();
     
-    // Get all possible moves
-    Set<Move> allPossibleMoves = stateExplorer.getPossibleMoves(banqiState);
-    
     for (Move move : allPossibleMoves) {
       switch(move.getType()) {
         case CAPTURE: captureMoves.add(move); break;
@@ -130,77 +117,104 @@ public class Heuristic {
     
     return orderedMoves;
   }
-  
+
   /**
-   * Get the number of each piece of each kind and color.
+   * Get all possible captures of the board, the best net gain of the
+   * exchange first, see {@link #getExchangeValue}.
    * 
-   * @param state The current state.
-   * @return faceDownPiecesNum The number of each piece of each kind and color.
+   * @param board The current board.
+   * @return orderedCaptures The ordered captures.
    */
-  public Map<String, Integer> getFaceDownPiecesNum(BanqiState state) {
-    List<Optional<Piece>> cells = state.getCells();
-    List<Piece> capturedPieces = state.getCapturedPieces();
-    Map<String, Integer> faceDownPiecesNum = Maps.newHashMap();
-    faceDownPiecesNum.putAll(FACEDOWNPIECESNUMBER);
-
-    // Caculate all face up pieces of the state to determine the number of each
-    // pieces facing down of the state.
-    for (Optional<Piece> piece : cells) {
-      if (piece.isPresent() && piece.get().getKind() != Piece.Kind.EMPTY) {
-        Piece.Kind kind = piece.get().getKind();
-        Piece.PieceColor pieceColor = piece.get().getPieceColor();
-        String key = "";
-        
-        switch(kind) {
-          case SOLDIER: key = "solNum"; break;
-          case CANNON: key = "canNum"; break;
-          case HORSE: key = "horNum"; break;
-          case CHARIOT: key = "chaNum"; break;
-          case ELEPHANT: key = "eleNum"; break;
-          case ADVISOR: key = "advNum"; break;
-          case GENERAL: key = "genNum"; break;
-          default: key = "solNum"; break;
-        }
-        
-        switch(pieceColor) {
-          case RED: key = "r" + key; break;
-          case BLACK: key = "b" + key; break;
-          default: key = "r" + key; break;
-        }
-        
-        faceDownPiecesNum.put(key, faceDownPiecesNum.get(key) - 1);
-      }
+  public List<Move> getOrderedCaptures(final BitBoard board) {
+    return getOrderedCaptures(board, Integer.MIN_VALUE);
+  }
+
+  /**
+   * Get the possible captures of the board whose exchange gains at least the
+   * value, the best net gain first and then the most valuable captured piece.
+   * 
+   * @param board The current board.
+   * @param minExchangeValue The least net gain of the captures returned.
+   * @return orderedCaptures The ordered captures.
+   */
+  public List<Move> getOrderedCaptures(final BitBoard board, int minExchangeValue) {
+    int[] captures = new int[PackedMove.MAX_MOVES];
+    int captureCount = getOrderedCaptures(board, minExchangeValue, captures,
+        new int[PackedMove.MAX_MOVES], new int[StaticExchangeEvaluator.GAINS_LENGTH]);
+    List<Move> orderedCaptures = new ArrayList<Move>(captureCount);
+    for (int i = 0; i < captureCount; i++) {
+      orderedCaptures.add(PackedMove.toMove(captures[i]));
     }
-    
-    // Caculate all captured pieces of the state.
-    for (Piece piece : capturedPieces) {
-      if (piece.getKind() != Piece.Kind.EMPTY) {
-        Piece.Kind kind = piece.getKind();
-        Piece.PieceColor pieceColor = piece.getPieceColor();
-        String key = "";
-        
-        switch(kind) {
-          case SOLDIER: key = "solNum"; break;
-          case CANNON: key = "canNum"; break;
-          case HORSE: key = "horNum"; break;
-          case CHARIOT: key = "chaNum"; break;
-          case ELEPHANT: key = "eleNum"; break;
-          case ADVISOR: key = "advNum"; break;
-          case GENERAL: key = "genNum"; break;
-          default: key = "solNum"; break;
-        }
-      
-        switch(pieceColor) {
-          case RED: key = "r" + key; break;
-          case BLACK: key = "b" + key; break;
-          default: key = "r" + key; break;
-        }
-        
-        faceDownPiecesNum.put(key, faceDownPiecesNum.get(key) - 1);
+    return orderedCaptures;
+  }
+
+  /**
+   * Put the captures of {@link #getOrderedCaptures(BitBoard, int)}, packed
+   * (see {@link PackedMove}), into the captures and their order scores into
+   * the scores, and return their number. The exchangeGains is the scratch
+   * buffer of the exchanges, see {@link SearchContext#getExchangeGains}.
+   */
+  int getOrderedCaptures(BitBoard board, int minExchangeValue, int[] captures,
+      int[] scores, int[] exchangeGains) {
+    int possibleCaptureCount = stateExplorer.getPossibleCaptures(board, captures);
+    int captureCount = 0;
+    for (int i = 0; i < possibleCaptureCount; i++) {
+      int capture = captures[i];
+      int exchangeValue = getExchangeValue(board, capture, exchangeGains);
+      if (exchangeValue >= minExchangeValue) {
+        captures[captureCount] = capture;
+        scores[captureCount] = exchangeValue * CAPTURED_VALUE_BOUND
+            + getCapturedValue(board, capture);
+        captureCount++;
       }
     }
-    
-    return faceDownPiecesNum;
+    PackedMove.sortByScore(captures, scores, captureCount);
+    return captureCount;
+  }
+
+  /**
+   * Returns the net gain in piece value of the capture move once the
+   * exchange on the captured cell plays out, see {@link StaticExchangeEvaluator}.
+   */
+  public int getExchangeValue(BitBoard board, Move move) {
+    return getExchangeValue(board, PackedMove.fromMove(move));
+  }
+
+  /** Same as {@link #getExchangeValue(BitBoard, Move)} for a packed move. */
+  public int getExchangeValue(BitBoard board, int move) {
+    return getExchangeValue(board, move, new int[StaticExchangeEvaluator.GAINS_LENGTH]);
+  }
+
+  /**
+   * Same as {@link #getExchangeValue(BitBoard, int)} with the scratch buffer
+   * of the exchange, see {@link SearchContext#getExchangeGains}.
+   */
+  int getExchangeValue(BitBoard board, int move, int[] exchangeGains) {
+    return StaticExchangeEvaluator.evaluate(board, PackedMove.getFrom(move),
+        PackedMove.getTo(move), exchangeGains);
+  }
+
+  /**
+   * Returns the value of the piece captured by the capture move.
+   */
+  public int getCapturedValue(BitBoard board, Move move) {
+    return getCapturedValue(board, PackedMove.fromMove(move));
+  }
+
+  /** Same as {@link #getCapturedValue(BitBoard, Move)} for a packed move. */
+  public int getCapturedValue(BitBoard board, int move) {
+    return BitBoard.getKindValue(BitBoard.kindOf(board.getCell(PackedMove.getTo(move))));
+  }
+
+  /**
+   * Get all possible moves of the board and reorder them, see
+   * {@link #getOrderedMoves(BanqiState)}.
+   * 
+   * @param board The current board.
+   * @return orderedMoves The ordered all possible moves.
+   */
+  public Iterable<Move> getOrderedMoves(final BitBoard board) {
+    return orderMoves(stateExplorer.getPossibleMoves(board));
   }
   
   /**
@@ -210,16 +224,12 @@ public class Heuristic {
    * @return valueOfFaceDownPiece The value of all face down pieces.
    */
   public int getFaceDownPieceValue(BanqiState state) {
-    Map<String, Integer> faceDownPiecesNum = getFaceDownPiecesNum(state);
-    
-    int valueOfFaceDownPiece =
-        (faceDownPiecesNum.get("bsolNum") - faceDownPiecesNum.get("rsolNum")) * VALUEOFSOLDIER
-        + (faceDownPiecesNum.get("bhorNum") - faceDownPiecesNum.get("rhorNum")) * VALUEOFHORSE
-        + (faceDownPiecesNum.get("bchaNum") - faceDownPiecesNum.get("rchaNum")) * VALUEOFCHARIOT
-        + (faceDownPiecesNum.get("beleNum") - faceDownPiecesNum.get("releNum")) * VALUEOFELEPHANT
-        + (faceDownPiecesNum.get("bcanNum") - faceDownPiecesNum.get("rcanNum")) * VALUEOFCANNON
-        + (faceDownPiecesNum.get("badvNum") - faceDownPiecesNum.get("radvNum")) * VALUEOFADVISOR
-        + (faceDownPiecesNum.get("bgenNum") - faceDownPiecesNum.get("rgenNum")) * VALUEOFGENERAL;
+    BitBoard board = BitBoard.fromState(state);
+    int valueOfFaceDownPiece = 0;
+    for (int code = 0; code < BitBoard.PIECE_CODES; code++) {
+      int value = board.getFaceDownCount(code) * BitBoard.getKindValue(BitBoard.kindOf(code));
+      valueOfFaceDownPiece += BitBoard.colorOf(code) == 0 ? -value : value;
+    }
     
     return valueOfFaceDownPiece;
   }
@@ -0,0 +1,298 @@
+package org.banqi.ai;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.banqi.client.BanqiState;
+import org.banqi.client.BitBoard;
+import org.banqi.client.Color;
+import org.banqi.client.Move;
+import org.banqi.client.PackedMove;
+import org.banqi.client.StateExplorerImpl;
+
+/**
+ * http://en.wikipedia.org/wiki/Monte_Carlo_tree_search<br>
+ * Information Set Monte Carlo Tree Search (single observer). Both players
+ * see the same board, so one tree is shared by all the determinizations:
+ * every iteration reveals the face down pieces it turns up at random
+ * (weighted by the number of face down pieces of each kind and color left),
+ * and only the children whose move is legal in that determinization can be
+ * selected. A child is selected by UCB where the number of visits of the
+ * parent is replaced by the number of times the child was available.
+ * Instead of a random playout, a new leaf is scored with the {@link Heuristic}.
+ * <br>
+ * The statistics of the nodes are kept in flat primitive arrays indexed by
+ * the node number. The search is anytime: it runs iterations until the soft
+ * deadline of the timer and then returns the most visited move of the root.
+ */
+public class InformationSetMcts {
+  private static final int ROOT = 0;
+  private static final int NO_NODE = -1;
+  private static final int INITIAL_CAPACITY = 1 << 12;
+  // The exploration constant of UCB
+  private static final double EXPLORATION = 0.7;
+  // The state value which makes a win 73% (1 / (1 + e^-1)) likely
+  private static final double VALUE_SCALE = 55;
+  // The first number of iterations reported to the listener, which is then
+  // told again every time the number doubles
+  private static final int FIRST_REPORTED_ITERATIONS = 256;
+  // The bounds of the win rate turned back into a value, so it stays finite
+  private static final double MIN_WIN_RATE = 0.01;
+  private static final double MAX_WIN_RATE = 0.99;
+
+  private final Heuristic heuristic;
+  private final StateExplorerImpl stateExplorer = new StateExplorerImpl();
+  private final BitBoard state;
+  private final Random random;
+  // Told about every doubling of the iterations, may be null
+  private IterationListener iterationListener;
+
+  // The move which leads to the node, packed (see PackedMove)
+  private int[] moves;
+  private int[] firstChildren;
+  private int[] nextSiblings;
+  private int[] visits;
+  // The number of times the node could have been selected
+  private int[] availabilities;
+  // The sum of the rewards of the player who made the move of the node
+  private double[] rewards;
+  // 1 if the black made the move of the node, 0 if the red did
+  private byte[] movers;
+  private int nodeCount;
+
+  // The nodes visited by the current iteration
+  private int[] path = new int[64];
+  // The legal moves of the board of the current iteration
+  private int[] legalMoves = new int[PackedMove.MAX_MOVES];
+  private boolean[] isChild = new boolean[PackedMove.MAX_MOVES];
+
+  public InformationSetMcts(Heuristic heuristic, BanqiState banqiState) {
+    this(heuristic, banqiState, new Random());
+  }
+
+  /** Same as {@link #InformationSetMcts(Heuristic, BanqiState)} with the random numbers. */
+  InformationSetMcts(Heuristic heuristic, BanqiState banqiState, Random random) {
+    this.heuristic = heuristic;
+    this.random = random;
+    this.state = BitBoard.fromState(banqiState);
+    moves = new int[INITIAL_CAPACITY];
+    firstChildren = new int[INITIAL_CAPACITY];
+    nextSiblings = new int[INITIAL_CAPACITY];
+    visits = new int[INITIAL_CAPACITY];
+    availabilities = new int[INITIAL_CAPACITY];
+    rewards = new double[INITIAL_CAPACITY];
+    movers = new byte[INITIAL_CAPACITY];
+    newNode(0, (byte) 0);
+  }
+
+  /**
+   * Tell the listener about the most visited move of the root every time the
+   * number of iterations doubles, e.g. a {@link TimeManager} whose soft
+   * deadline then depends on the stability of that move. The depth told is
+   * the number of doublings and the scores are the values of the win rates
+   * of the two most visited moves.
+   */
+  public void setIterationListener(IterationListener iterationListener) {
+    this.iterationListener = iterationListener;
+  }
+
+  /**
+   * Run iterations until the soft deadline of the timer and return the most
+   * visited move of the root, or null if the root has no move. An iteration
+   * is short, so there is no need to wait for the hard deadline.
+   */
+  public Move findBestMove(Timer timer) {
+    BitBoard board = state.copy();
+    int reportedIterations = FIRST_REPORTED_ITERATIONS;
+    int reportCount = 0;
+    do {
+      runIteration(board);
+      if (iterationListener != null && visits[ROOT] == reportedIterations) {
+        reportIteration(reportCount++);
+        reportedIterations *= 2;
+      }
+    } while (!timer.didSoftTimeout());
+
+    int bestChild = getMostVisitedChild(NO_NODE);
+    if (bestChild == NO_NODE) {
+      return null;
+    }
+    return PackedMove.toMove(moves[bestChild]);
+  }
+
+  /** Returns the number of iterations run so far. */
+  public int getIterationCount() {
+    return visits[ROOT];
+  }
+
+  /** Returns the most visited child of the root but the excluded one, or NO_NODE. */
+  private int getMostVisitedChild(int excludedChild) {
+    int mostVisitedChild = NO_NODE;
+    for (int child = firstChildren[ROOT]; child != NO_NODE; child = nextSiblings[child]) {
+      if (child != excludedChild
+          && (mostVisitedChild == NO_NODE || visits[child] > visits[mostVisitedChild])) {
+        mostVisitedChild = child;
+      }
+    }
+    return mostVisitedChild;
+  }
+
+  /** Tell the listener about the two most visited moves of the root. */
+  private void reportIteration(int depth) {
+    int bestChild = getMostVisitedChild(NO_NODE);
+    if (bestChild == NO_NODE) {
+      return;
+    }
+    // With a single move, the second best is the worst value
+    int secondChild = getMostVisitedChild(bestChild);
+    int secondBestScore = secondChild != NO_NODE ? getValue(secondChild) : toValue(MIN_WIN_RATE);
+    iterationListener.onIterationCompleted(depth, PackedMove.toMove(moves[bestChild]),
+        getValue(bestChild), secondBestScore);
+  }
+
+  /** Returns the win rate of the player who made the move of the child as a value. */
+  private int getValue(int child) {
+    return toValue(Math.min(Math.max(rewards[child] / visits[child], MIN_WIN_RATE),
+        MAX_WIN_RATE));
+  }
+
+  /** Returns the heuristic value of the win rate, the inverse of {@link #getBlackReward}. */
+  private static int toValue(double winRate) {
+    return (int) Math.round(VALUE_SCALE * Math.log(winRate / (1 - winRate)));
+  }
+
+  /**
+   * Select down the tree with a new determinization, expand one node, score
+   * it and back the score up the path. The board is restored at the end.
+   */
+  private void runIteration(BitBoard board) {
+    int node = ROOT;
+    int pathLength = 0;
+    path[pathLength++] = node;
+
+    while (board.getWinner() == Color.N) {
+      int legalMoveCount = stateExplorer.getPossibleMoves(board, legalMoves);
+      if (legalMoveCount == 0) {
+        break;
+      }
+
+      // Every child which is legal in this determinization is available
+      Arrays.fill(isChild, 0, legalMoveCount, false);
+      int selected = NO_NODE;
+      double bestUcb = 0;
+      for (int child = firstChildren[node]; child != NO_NODE; child = nextSiblings[child]) {
+        int index = indexOf(moves[child], legalMoveCount);
+        if (index < 0) {
+          continue;
+        }
+        isChild[index] = true;
+        availabilities[child]++;
+        double ucb = rewards[child] / visits[child] + EXPLORATION
+            * Math.sqrt(Math.log(availabilities[child]) / visits[child]);
+        if (selected == NO_NODE || ucb > bestUcb) {
+          selected = child;
+          bestUcb = ucb;
+        }
+      }
+
+      // Expand a random legal move which has no node yet
+      int untriedCount = 0;
+      for (int i = 0; i < legalMoveCount; i++) {
+        if (!isChild[i]) {
+          legalMoves[untriedCount++] = legalMoves[i];
+        }
+      }
+      boolean isExpanded = untriedCount > 0;
+      if (isExpanded) {
+        selected = newNode(legalMoves[random.nextInt(untriedCount)],
+            (byte) BitBoard.colorOf(board.getTurn()));
+        nextSiblings[selected] = firstChildren[node];
+        firstChildren[node] = selected;
+        availabilities[selected] = 1;
+      }
+
+      doMove(board, moves[selected]);
+      node = selected;
+      if (pathLength == path.length) {
+        path = Arrays.copyOf(path, pathLength * 2);
+      }
+      path[pathLength++] = node;
+      if (isExpanded) {
+        break;
+      }
+    }
+
+    // Score the leaf and back the score up the path
+    double blackReward = getBlackReward(board);
+    visits[ROOT]++;
+    for (int i = pathLength - 1; i > 0; i--) {
+      int pathNode = path[i];
+      visits[pathNode]++;
+      rewards[pathNode] += movers[pathNode] == 1 ? blackReward : 1 - blackReward;
+      board.undoMove();
+    }
+  }
+
+  /**
+   * Returns how likely the black wins the board, from the heuristic value.
+   */
+  private double getBlackReward(BitBoard board) {
+    int value = heuristic.getStateValue(board);
+    if (value == Integer.MAX_VALUE) {
+      return 1;
+    } else if (value == Integer.MIN_VALUE) {
+      return 0;
+    }
+    return 1 / (1 + Math.exp(-value / VALUE_SCALE));
+  }
+
+  private int indexOf(int move, int legalMoveCount) {
+    for (int i = 0; i < legalMoveCount; i++) {
+      if (legalMoves[i] == move) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Do the move on the board, a face down piece is revealed at random among
+   * the face down pieces left.
+   */
+  private void doMove(BitBoard board, int move) {
+    int turnedCode = BitBoard.FACE_DOWN;
+    if (PackedMove.isTurn(move)) {
+      int total = 0;
+      for (int code = 0; code < BitBoard.PIECE_CODES; code++) {
+        total += board.getFaceDownCount(code);
+      }
+      int pick = random.nextInt(total);
+      turnedCode = 0;
+      while (pick >= board.getFaceDownCount(turnedCode)) {
+        pick -= board.getFaceDownCount(turnedCode);
+        turnedCode++;
+      }
+    }
+    board.doMove(PackedMove.getFrom(move), PackedMove.getTo(move), PackedMove.getType(move),
+        turnedCode);
+  }
+
+  private int newNode(int move, byte mover) {
+    if (nodeCount == moves.length) {
+      int capacity = nodeCount * 2;
+      moves = Arrays.copyOf(moves, capacity);
+      firstChildren = Arrays.copyOf(firstChildren, capacity);
+      nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+      visits = Arrays.copyOf(visits, capacity);
+      availabilities = Arrays.copyOf(availabilities, capacity);
+      rewards = Arrays.copyOf(rewards, capacity);
+      movers = Arrays.copyOf(movers, capacity);
+    }
+    int node = nodeCount++;
+    moves[node] = move;
+    movers[node] = mover;
+    firstChildren[node] = NO_NODE;
+    nextSiblings[node] = NO_NODE;
+    return node;
+  }
+}
@@ -0,0 +1,22 @@
+package org.banqi.ai;
+
+import org.banqi.client.Move;
+
+/**
+ * Told about every completed depth of the iterative deepening of
+ * {@link AlphaBetaPruning}, or every doubling of the iterations of
+ * {@link InformationSetMcts}, e.g. to manage the time of the search.
+ */
+public interface IterationListener {
+  /**
+   * Called when a depth is completed.
+   *
+   * @param depth The depth completed.
+   * @param bestMove The best move at that depth.
+   * @param bestScore The score of the best move, for the player to move.
+   * @param secondBestScore An upper bound of the score of the other moves,
+   *     below the best score by {@link AlphaBetaPruning#DOMINANCE_MARGIN} or
+   *     more only once the best move is the same for two depths in a row.
+   */
+  void onIterationCompleted(int depth, Move bestMove, int bestScore, int secondBestScore);
+}
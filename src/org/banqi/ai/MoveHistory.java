@@ -0,0 +1,99 @@
+package org.banqi.ai;
+
+import java.util.Arrays;
+
+import org.banqi.client.BitBoard;
+import org.banqi.client.PackedMove;
+
+/**
+ * The killer moves and the history of the quiet moves (moves and turns) of
+ * {@link AlphaBetaPruning}, used to order them: a quiet move which caused a
+ * beta cutoff is likely to cause one again in a sibling position (the two
+ * killer moves of each ply) and anywhere in the tree (the history, indexed
+ * by the from and to cells, which counts the cutoffs weighted by the depth
+ * squared).
+ * <br>
+ * The moves are packed like in the {@link TranspositionTable}, see
+ * {@link PackedMove}. A history is confined to one search thread; it
+ * can be kept from one search to the next with {@link #newSearch}.
+ */
+public class MoveHistory {
+  /** The quiet moves are ordered below this score unless they are killers. */
+  public static final int KILLER_SCORE = 1 << 24;
+
+  private static final int KILLERS_PER_PLY = 2;
+  private static final int MAX_PLY = 128;
+  // The history is halved once a count reaches it, so it stays below the
+  // killers
+  private static final int MAX_HISTORY = KILLER_SCORE;
+
+  private final int[] killers = new int[MAX_PLY * KILLERS_PER_PLY];
+  private final int[] history = new int[BitBoard.CELLS * BitBoard.CELLS];
+
+  public MoveHistory() {
+    Arrays.fill(killers, TranspositionTable.NO_MOVE);
+  }
+
+  /**
+   * Start the search of the position two plies later, e.g. the next move of
+   * the same player: the killers move up two plies and the history is aged.
+   */
+  public void newSearch() {
+    System.arraycopy(killers, 2 * KILLERS_PER_PLY, killers, 0,
+        killers.length - 2 * KILLERS_PER_PLY);
+    Arrays.fill(killers, killers.length - 2 * KILLERS_PER_PLY, killers.length,
+        TranspositionTable.NO_MOVE);
+    age();
+  }
+
+  /** Remove all the killers and the history. */
+  public void clear() {
+    Arrays.fill(killers, TranspositionTable.NO_MOVE);
+    Arrays.fill(history, 0);
+  }
+
+  /**
+   * Record that the quiet move caused a beta cutoff at the ply, searched
+   * with the depth.
+   */
+  public void addCutoff(int move, int ply, int depth) {
+    if (ply < MAX_PLY) {
+      int index = ply * KILLERS_PER_PLY;
+      if (killers[index] != move) {
+        killers[index + 1] = killers[index];
+        killers[index] = move;
+      }
+    }
+    int historyIndex = getHistoryIndex(move);
+    history[historyIndex] += depth * depth;
+    if (history[historyIndex] >= MAX_HISTORY) {
+      age();
+    }
+  }
+
+  /**
+   * Returns the score to order the quiet move at the ply with, higher first:
+   * the killers above all the other moves, then the history.
+   */
+  public int getScore(int move, int ply) {
+    if (ply < MAX_PLY) {
+      int index = ply * KILLERS_PER_PLY;
+      if (killers[index] == move) {
+        return KILLER_SCORE + 1;
+      } else if (killers[index + 1] == move) {
+        return KILLER_SCORE;
+      }
+    }
+    return history[getHistoryIndex(move)];
+  }
+
+  private void age() {
+    for (int i = 0; i < history.length; i++) {
+      history[i] >>= 1;
+    }
+  }
+
+  private static int getHistoryIndex(int move) {
+    return PackedMove.getFrom(move) * BitBoard.CELLS + PackedMove.getTo(move);
+  }
+}
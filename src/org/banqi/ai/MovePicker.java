@@ -0,0 +1,150 @@
+package org.banqi.ai;
+
+import org.banqi.client.BitBoard;
+import org.banqi.client.PackedMove;
+import org.banqi.client.StateExplorerImpl;
+
+/**
+ * Picks the moves of a node of {@link AlphaBetaPruning} one at a time, in
+ * the order to search them, and generates them in stages only when the
+ * previous stages are used up: the best move of the transposition table,
+ * the captures which do not lose the exchange by net gain, the quiet moves
+ * (moves of type MOVE) by killer and history, the turns by killer and
+ * history, and the losing captures last. Most nodes cut off on their first
+ * move or two, so the later stages, e.g. the up to 32 turns of the opening,
+ * are mostly never generated.
+ * <br>
+ * A picker is reused by all the nodes of a ply of one search, see
+ * {@link SearchContext#getMovePicker}, so it allocates nothing.
+ */
+class MovePicker {
+  private static final int TT_MOVE = 0;
+  private static final int GOOD_CAPTURES = 1;
+  private static final int QUIET_MOVES = 2;
+  private static final int TURNS = 3;
+  private static final int LOSING_CAPTURES = 4;
+  private static final int DONE = 5;
+
+  private final StateExplorerImpl stateExplorer = new StateExplorerImpl();
+  // The moves of the current stage and their order scores
+  private final int[] moves = new int[PackedMove.MAX_MOVES];
+  private final int[] scores = new int[PackedMove.MAX_MOVES];
+  // The losing captures put aside by the stage of the good captures
+  private final int[] losingCaptures = new int[PackedMove.MAX_MOVES];
+  private final int[] losingScores = new int[PackedMove.MAX_MOVES];
+  // The scratch buffer of the static exchange evaluation, shared by the
+  // pickers of the search
+  private final int[] exchangeGains;
+
+  private BitBoard board;
+  private Heuristic heuristic;
+  private MoveHistory moveHistory;
+  private int ttMove;
+  private int ply;
+  private int stage;
+  private int moveCount;
+  private int moveIndex;
+  private int losingCaptureCount;
+
+  MovePicker(int[] exchangeGains) {
+    this.exchangeGains = exchangeGains;
+  }
+
+  /**
+   * Start picking the moves of the board, the ply of the node (the undo
+   * count of the board). The ttMove is searched first if it is legal.
+   */
+  void init(BitBoard board, int ttMove, int ply, Heuristic heuristic,
+      MoveHistory moveHistory) {
+    this.board = board;
+    this.heuristic = heuristic;
+    this.moveHistory = moveHistory;
+    this.ply = ply;
+    stage = TT_MOVE;
+    moveIndex = 0;
+    moveCount = 0;
+    losingCaptureCount = 0;
+    this.ttMove = PackedMove.NONE;
+    if (ttMove != TranspositionTable.NO_MOVE && stateExplorer.isPossibleMove(board, ttMove)) {
+      this.ttMove = ttMove;
+      moves[moveCount++] = ttMove;
+    }
+  }
+
+  /**
+   * Returns the next move to search, or {@link PackedMove#NONE} once all
+   * the moves are picked. The board must be the same as when the node
+   * started.
+   */
+  int nextMove() {
+    while (moveIndex == moveCount) {
+      if (stage == DONE) {
+        return PackedMove.NONE;
+      }
+      generate(++stage);
+    }
+    return moves[moveIndex++];
+  }
+
+  /** Whether the last move picked is a capture which loses the exchange. */
+  boolean isLosingCapture() {
+    return stage == LOSING_CAPTURES;
+  }
+
+  /** Put the moves of the stage in order in the moves. */
+  private void generate(int nextStage) {
+    moveIndex = 0;
+    switch (nextStage) {
+      case GOOD_CAPTURES:
+        moveCount = stateExplorer.getPossibleCaptures(board, moves);
+        int captureCount = 0;
+        for (int i = 0; i < moveCount; i++) {
+          int capture = moves[i];
+          if (capture == ttMove) {
+            continue;
+          }
+          int exchangeValue = heuristic.getExchangeValue(board, capture, exchangeGains);
+          if (exchangeValue >= 0) {
+            moves[captureCount] = capture;
+            scores[captureCount++] = exchangeValue;
+          } else {
+            losingCaptures[losingCaptureCount] = capture;
+            losingScores[losingCaptureCount++] = exchangeValue;
+          }
+        }
+        moveCount = captureCount;
+        break;
+      case QUIET_MOVES:
+        moveCount = scoreByHistory(stateExplorer.getPossibleQuietMoves(board, moves));
+        break;
+      case TURNS:
+        moveCount = scoreByHistory(stateExplorer.getPossibleTurns(board, moves));
+        break;
+      case LOSING_CAPTURES:
+        System.arraycopy(losingCaptures, 0, moves, 0, losingCaptureCount);
+        System.arraycopy(losingScores, 0, scores, 0, losingCaptureCount);
+        moveCount = losingCaptureCount;
+        break;
+      default:
+        moveCount = 0;
+        return;
+    }
+    PackedMove.sortByScore(moves, scores, moveCount);
+  }
+
+  /**
+   * Score the first count moves by the killers and the history, leaving out
+   * the best move of the transposition table, and return their new count.
+   */
+  private int scoreByHistory(int count) {
+    int scoredCount = 0;
+    for (int i = 0; i < count; i++) {
+      int move = moves[i];
+      if (move != ttMove) {
+        moves[scoredCount] = move;
+        scores[scoredCount++] = moveHistory.getScore(move, ply);
+      }
+    }
+    return scoredCount;
+  }
+}
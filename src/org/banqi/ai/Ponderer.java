@@ -0,0 +1,127 @@
+package org.banqi.ai;
+
+import org.banqi.client.BanqiState;
+import org.banqi.client.BitBoard;
+import org.banqi.client.Move;
+import org.banqi.client.StateExplorerImpl;
+
+/**
+ * Searches on the time of the opponent (pondering). The client has no
+ * threads, so the pondering is done in short slices, e.g. by a repeating
+ * timer, and the browser stays responsive between them:
+ * <ol>
+ * <li>The first slice predicts the reply of the opponent.</li>
+ * <li>The next slices search the state after the predicted reply with
+ * {@link AlphaBetaPruning}, deeper and deeper, each slice starting at the
+ * depth the previous slices completed. When the predicted reply is a turn,
+ * whose piece cannot be predicted, there is nothing to ponder.</li>
+ * </ol>
+ * All the slices are one search of the {@link TranspositionTable} of the
+ * ponderer ({@link #start} starts it), so the deep entries of a slice are
+ * not replaced by the shallow entries of the next one. The search of the
+ * actual move then uses the table: when the prediction is right
+ * ({@link #isHit}), that search goes on with the same search of the table
+ * and starts at the pondered depth ({@link #getPonderedDepth}), which the
+ * table completes at once, and spends its time beyond it.
+ */
+public class Ponderer implements IterationListener {
+  private static final int MAX_DEPTH = 50;
+
+  private final Heuristic heuristic;
+  private final TranspositionTable transpositionTable;
+  private final SearchStatistics statistics = new SearchStatistics();
+  private final StateExplorerImpl stateExplorer = new StateExplorerImpl();
+  // The state of the opponent, null when not pondering
+  private BanqiState opponentState;
+  // The state searched, null until the reply of the opponent is predicted
+  private BanqiState ponderedState;
+  private long ponderedKey;
+  private int ponderedDepth;
+  private boolean isDone;
+
+  public Ponderer(Heuristic heuristic, TranspositionTable transpositionTable) {
+    this.heuristic = heuristic;
+    this.transpositionTable = transpositionTable;
+  }
+
+  /**
+   * Start pondering the state, where the opponent is to move. The pondering
+   * is done by the next calls to {@link #ponder}.
+   */
+  public void start(BanqiState opponentState) {
+    transpositionTable.newSearch();
+    this.opponentState = opponentState;
+    ponderedState = null;
+    ponderedDepth = 0;
+    isDone = false;
+  }
+
+  /** Stop pondering, the results are kept in the transposition table. */
+  public void stop() {
+    opponentState = null;
+  }
+
+  /**
+   * Ponder for about the milliseconds.
+   *
+   * @return whether there is more to ponder.
+   */
+  public boolean ponder(int milliseconds) {
+    if (opponentState == null || isDone) {
+      return false;
+    }
+    SearchClock clock = SearchClock.withTimeBudget(milliseconds, milliseconds);
+    if (ponderedState == null) {
+      AlphaBetaPruning ai =
+          new AlphaBetaPruning(heuristic, opponentState, transpositionTable, statistics);
+      ai.continueSearch();
+      Move reply = ai.findBestMove(MAX_DEPTH, clock);
+      if (reply.getType() == Move.Type.TURN) {
+        isDone = true;
+        return false;
+      }
+      ponderedState = getStateAfter(opponentState, reply);
+      ponderedKey = BitBoard.fromState(ponderedState).getKey();
+      return true;
+    }
+
+    AlphaBetaPruning ai =
+        new AlphaBetaPruning(heuristic, ponderedState, transpositionTable, statistics);
+    ai.setIterationListener(this);
+    ai.continueSearch();
+    ai.setStartDepth(ponderedDepth);
+    ai.findBestMove(MAX_DEPTH, clock);
+    return !isDone;
+  }
+
+  @Override
+  public void onIterationCompleted(int depth, Move bestMove, int bestScore,
+      int secondBestScore) {
+    ponderedDepth = Math.max(ponderedDepth, depth);
+    isDone = depth == MAX_DEPTH - 1
+        || AlphaBetaPruning.isWinScore(bestScore) || AlphaBetaPruning.isWinScore(-bestScore);
+  }
+
+  /** Whether the state is the one pondered, i.e. the prediction was right. */
+  public boolean isHit(BanqiState state) {
+    return ponderedState != null && BitBoard.fromState(state).getKey() == ponderedKey;
+  }
+
+  /** Returns the deepest depth completed on the pondered state. */
+  public int getPonderedDepth() {
+    return ponderedDepth;
+  }
+
+  public SearchStatistics getStatistics() {
+    return statistics;
+  }
+
+  /** Returns the state after the reply, which is not a turn. */
+  private BanqiState getStateAfter(BanqiState state, Move reply) {
+    BitBoard board = BitBoard.fromState(state);
+    board.doMove(stateExplorer.convertToIndex(reply.getFrom().getRow(), reply.getFrom().getCol()),
+        stateExplorer.convertToIndex(reply.getTo().getRow(), reply.getTo().getCol()),
+        reply.getType(), BitBoard.FACE_DOWN);
+    return board.toState();
+  }
+}
@@ -0,0 +1,126 @@
+package org.banqi.ai;
+
+import com.google.common.base.Ticker;
+
+/**
+ * A low overhead {@link Timer} for the search, which calls
+ * {@link #didTimeout} on every node. Instead of reading the time on every
+ * call, the clock counts the calls (the nodes) and only reads its
+ * {@link Ticker} (System.nanoTime on the JVM) every poll interval nodes.
+ * Once timed out, it stays timed out.
+ * <br>
+ * A time budget has a soft deadline, after which the search does not start a
+ * new iteration, and a hard deadline, after which the search is interrupted.
+ * A node budget instead times out after a number of nodes, whatever the
+ * speed of the machine, so the strength of the AI is reproducible.
+ * <br>
+ * The node count is not synchronized: a clock shared by several threads
+ * still times out, but its node budget is only exact for a single thread.
+ */
+public class SearchClock implements Timer {
+  /** The default number of nodes between two reads of the time. */
+  public static final int DEFAULT_POLL_INTERVAL = 1024;
+
+  private static final long NANOS_PER_MILLI = 1000000L;
+  private static final long NO_LIMIT = Long.MAX_VALUE;
+
+  private final Ticker ticker;
+  private final long start;
+  // The deadlines in nanoseconds since the start
+  private final long softDeadline;
+  private final long hardDeadline;
+  private final long nodeBudget;
+  // The poll interval less one, the interval is a power of two
+  private final long pollMask;
+  private long nodeCount = 0;
+  private volatile boolean timedOut = false;
+
+  SearchClock(Ticker ticker, long softDeadline, long hardDeadline, long nodeBudget,
+      int pollInterval) {
+    if (Integer.bitCount(pollInterval) != 1) {
+      throw new IllegalArgumentException("The poll interval must be a power of two");
+    }
+    this.ticker = ticker;
+    this.start = ticker.read();
+    this.softDeadline = softDeadline;
+    this.hardDeadline = hardDeadline;
+    this.nodeBudget = nodeBudget;
+    this.pollMask = pollInterval - 1;
+  }
+
+  /**
+   * Returns a clock which stops new iterations after softMilliseconds and
+   * interrupts the search after hardMilliseconds. Non positive milliseconds
+   * mean there is no such deadline.
+   */
+  public static SearchClock withTimeBudget(int softMilliseconds, int hardMilliseconds) {
+    return withTimeBudget(softMilliseconds, hardMilliseconds, DEFAULT_POLL_INTERVAL);
+  }
+
+  /**
+   * Same as {@link #withTimeBudget(int, int)}, reading the time every
+   * pollInterval nodes (a power of two).
+   */
+  public static SearchClock withTimeBudget(int softMilliseconds, int hardMilliseconds,
+      int pollInterval) {
+    return new SearchClock(Ticker.systemTicker(), toNanos(softMilliseconds),
+        toNanos(hardMilliseconds), NO_LIMIT, pollInterval);
+  }
+
+  /**
+   * Same as {@link #withTimeBudget(int, int)}, reading the time of the
+   * ticker, e.g. a fake one in the tests.
+   */
+  static SearchClock withTimeBudget(int softMilliseconds, int hardMilliseconds, Ticker ticker) {
+    return new SearchClock(ticker, toNanos(softMilliseconds), toNanos(hardMilliseconds),
+        NO_LIMIT, DEFAULT_POLL_INTERVAL);
+  }
+
+  /**
+   * Returns a clock which interrupts the search after the number of nodes,
+   * it never reads the time.
+   */
+  public static SearchClock withNodeBudget(long nodeBudget) {
+    return new SearchClock(Ticker.systemTicker(), NO_LIMIT, NO_LIMIT, nodeBudget,
+        DEFAULT_POLL_INTERVAL);
+  }
+
+  @Override
+  public boolean didTimeout() {
+    if (timedOut) {
+      return true;
+    }
+    nodeCount++;
+    if (nodeCount >= nodeBudget
+        || ((nodeCount & pollMask) == 0 && getElapsedNanos() >= hardDeadline)) {
+      timedOut = true;
+    }
+    return timedOut;
+  }
+
+  /**
+   * Reads the time right away: it is only called between two iterations.
+   */
+  @Override
+  public boolean didSoftTimeout() {
+    return timedOut || getElapsedNanos() >= softDeadline;
+  }
+
+  /** Returns the number of nodes counted so far. */
+  public long getNodeCount() {
+    return nodeCount;
+  }
+
+  /** Returns the milliseconds since the clock was created. */
+  public long getElapsedMilliseconds() {
+    return getElapsedNanos() / NANOS_PER_MILLI;
+  }
+
+  private long getElapsedNanos() {
+    return ticker.read() - start;
+  }
+
+  private static long toNanos(int milliseconds) {
+    return milliseconds <= 0 ? NO_LIMIT : milliseconds * NANOS_PER_MILLI;
+  }
+}
@@ -0,0 +1,82 @@
+package org.banqi.ai;
+
+import java.util.Arrays;
+
+import org.banqi.client.BitBoard;
+import org.banqi.client.PackedMove;
+
+/**
+ * The state of one search: the board the moves are done and undone on, the
+ * timer, the number of face down pieces of the root used to decay the
+ * scores, the buffers and the move pickers of each ply, the buffer of the
+ * static exchange evaluation and the counts of the search. A context is
+ * confined to the thread running the search, so nothing here is shared
+ * between searches; the counts are added to the {@link SearchStatistics}
+ * once the search is done.
+ */
+class SearchContext {
+  final BitBoard board;
+  final Timer timer;
+  // The pieces turned up since the root (this count less the face down
+  // pieces left) decay the scores
+  final int rootFaceDownCount;
+  long moveCount = 0;
+  long winCaseCount = 0;
+  long loseCaseCount = 0;
+  // The packed moves of the node being searched at each ply (the undo count
+  // of the board) and their order scores, so a node allocates no move
+  private int[][] moves = new int[0][];
+  private int[][] scores = new int[0][];
+  // The move picker of the node being searched at each ply
+  private MovePicker[] movePickers = new MovePicker[0];
+  // The gains of the exchange being evaluated, one exchange at a time
+  private final int[] exchangeGains = new int[StaticExchangeEvaluator.GAINS_LENGTH];
+
+  SearchContext(BitBoard board, Timer timer) {
+    this.board = board;
+    this.timer = timer;
+    this.rootFaceDownCount = Integer.bitCount(board.getFaceDownMask());
+  }
+
+  /** Returns the move buffer of the ply, {@link PackedMove#MAX_MOVES} long. */
+  int[] getMoves(int ply) {
+    ensurePly(ply);
+    return moves[ply];
+  }
+
+  /** Returns the buffer of the order scores of the moves of the ply. */
+  int[] getScores(int ply) {
+    ensurePly(ply);
+    return scores[ply];
+  }
+
+  /** Returns the move picker of the ply. */
+  MovePicker getMovePicker(int ply) {
+    ensurePly(ply);
+    return movePickers[ply];
+  }
+
+  /**
+   * Returns the scratch buffer of the gains of {@link StaticExchangeEvaluator},
+   * {@link StaticExchangeEvaluator#GAINS_LENGTH} long.
+   */
+  int[] getExchangeGains() {
+    return exchangeGains;
+  }
+
+  private void ensurePly(int ply) {
+    if (ply < moves.length) {
+      return;
+    }
+    int length = Math.max(ply + 1, moves.length * 2);
+    int oldLength = moves.length;
+    moves = Arrays.copyOf(moves, length);
+    scores = Arrays.copyOf(scores, length);
+    movePickers = Arrays.copyOf(movePickers, length);
+    for (int i = oldLength; i < length; i++) {
+      moves[i] = new int[PackedMove.MAX_MOVES];
+      scores[i] = new int[PackedMove.MAX_MOVES];
+      movePickers[i] = new MovePicker(exchangeGains);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package org.banqi.ai;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The statistics of searches: the number of moves done and of the won and
+ * lost leaves reached. Every search counts in its own {@link SearchContext}
+ * and adds its counts here when it is done, so one instance can be shared by
+ * searches running at the same time, e.g. all the AI games of a server.
+ */
+public class SearchStatistics {
+  private final AtomicLong moveCount = new AtomicLong();
+  private final AtomicLong winCaseCount = new AtomicLong();
+  private final AtomicLong loseCaseCount = new AtomicLong();
+
+  /** Add the counts of a search. */
+  void add(SearchContext context) {
+    moveCount.addAndGet(context.moveCount);
+    winCaseCount.addAndGet(context.winCaseCount);
+    loseCaseCount.addAndGet(context.loseCaseCount);
+  }
+
+  public long getMoveCount() {
+    return moveCount.get();
+  }
+
+  /** Returns the number of leaves where the black won. */
+  public long getWinCaseCount() {
+    return winCaseCount.get();
+  }
+
+  /** Returns the number of leaves where the red won. */
+  public long getLoseCaseCount() {
+    return loseCaseCount.get();
+  }
+}
@@ -0,0 +1,118 @@
+package org.banqi.ai;
+
+import org.banqi.client.BitBoard;
+import org.banqi.client.BoardTables;
+import org.banqi.client.Piece;
+
+/**
+ * http://chessprogramming.org/Static_Exchange_Evaluation<br>
+ * Returns the net gain in piece value of a capture once the exchange on the
+ * captured cell plays out: the two players take turns capturing on that
+ * cell with their least valuable piece able to, and either may stop when
+ * going on would lose value. The capture rules are those of
+ * {@link BoardTables#canCapture} and the values those of
+ * {@link BitBoard#getKindValue}. A cannon captures over exactly one
+ * screen (any piece, face down or not), so the screens are looked for again
+ * after every capture: a piece leaving its cell may open or close the line
+ * of a cannon.
+ * <br>
+ * The exchange only sees the captured cell, it ignores the threats on the
+ * other cells and that capturing the last piece ends the game.
+ */
+public final class StaticExchangeEvaluator {
+  private static final int CANNON = Piece.Kind.CANNON.ordinal();
+  private static final int NO_CELL = -1;
+  /** The length of the buffer of the gains of an exchange. */
+  static final int GAINS_LENGTH = BitBoard.CELLS + 1;
+
+  private StaticExchangeEvaluator() {
+  }
+
+  /**
+   * Returns the net gain of the capture from the cell to the cell for the
+   * player making it, at least the value of the captured piece less the
+   * value of the capturing piece, at most the value of the captured piece.
+   */
+  public static int evaluate(BitBoard board, int from, int to) {
+    return evaluate(board, from, to, new int[GAINS_LENGTH]);
+  }
+
+  /**
+   * Same as {@link #evaluate(BitBoard, int, int)} with a scratch buffer of
+   * {@link #GAINS_LENGTH} ints, so a search evaluates its captures without
+   * allocating, see {@link SearchContext#getExchangeGains}.
+   */
+  static int evaluate(BitBoard board, int from, int to, int[] gains) {
+    // gains[i] is the gain of the i-th capture of the exchange if the
+    // exchange stops right after it
+    gains[0] = BitBoard.getKindValue(BitBoard.kindOf(board.getCell(to)));
+
+    // The pieces which take part in the exchange leave the occupied cells,
+    // the captured cell stays occupied by the last capturing piece
+    int occupiedMask = board.getOccupiedMask() & ~(1 << from);
+    int redMask = board.getColorMask(0) & ~(1 << from) & ~(1 << to);
+    int blackMask = board.getColorMask(1) & ~(1 << from) & ~(1 << to);
+    int occupantKind = BitBoard.kindOf(board.getCell(from));
+    int color = 1 - BitBoard.colorOf(board.getCell(from));
+
+    int depth = 0;
+    while (true) {
+      int attacker = getLeastValuableAttacker(board, to, occupantKind, occupiedMask,
+          color == 0 ? redMask : blackMask);
+      if (attacker == NO_CELL) {
+        break;
+      }
+      depth++;
+      gains[depth] = BitBoard.getKindValue(occupantKind) - gains[depth - 1];
+      occupiedMask &= ~(1 << attacker);
+      if (color == 0) {
+        redMask &= ~(1 << attacker);
+      } else {
+        blackMask &= ~(1 << attacker);
+      }
+      occupantKind = BitBoard.kindOf(board.getCell(attacker));
+      color = 1 - color;
+    }
+
+    // Each player stops the exchange if capturing again loses value
+    while (depth > 0) {
+      gains[depth - 1] = -Math.max(-gains[depth - 1], gains[depth]);
+      depth--;
+    }
+    return gains[0];
+  }
+
+  /**
+   * Returns the cell of the least valuable piece among the pieces of the
+   * mask which can capture the occupant of the cell, or NO_CELL.
+   */
+  private static int getLeastValuableAttacker(BitBoard board, int cell, int occupantKind,
+      int occupiedMask, int attackerMask) {
+    int attacker = NO_CELL;
+    int attackerValue = Integer.MAX_VALUE;
+    for (int[] ray : BoardTables.getRays(cell)) {
+      boolean isAdjacent = true;
+      boolean hasScreen = false;
+      // The adjacent cell, then the cell past the screen for a cannon
+      for (int next : ray) {
+        if ((occupiedMask & (1 << next)) != 0) {
+          if ((attackerMask & (1 << next)) != 0) {
+            int kind = BitBoard.kindOf(board.getCell(next));
+            boolean canCapture = hasScreen ? kind == CANNON
+                : isAdjacent && kind != CANNON && BoardTables.canCapture(kind, occupantKind);
+            if (canCapture && BitBoard.getKindValue(kind) < attackerValue) {
+              attacker = next;
+              attackerValue = BitBoard.getKindValue(kind);
+            }
+          }
+          if (hasScreen) {
+            break;
+          }
+          hasScreen = true;
+        }
+        isAdjacent = false;
+      }
+    }
+    return attacker;
+  }
+}
@@ -0,0 +1,157 @@
+package org.banqi.ai;
+
+import java.util.Set;
+
+import org.banqi.client.BitBoard;
+import org.banqi.client.Move;
+import org.banqi.client.StateExplorerImpl;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Splits the time of a turn (the numberOfSecondsForTurn of SetTurn) for one
+ * search of {@link AlphaBetaPruning}. It is the {@link Timer} of the search
+ * and listens to its iterations:
+ * <ul>
+ * <li>The hard deadline is the time of the turn, less a safety margin.</li>
+ * <li>The soft deadline, after which no new depth is started, is a part of
+ * the hard deadline which depends on the position: the opening flips get
+ * almost no time, a tactical middle game (few face down pieces, many moves)
+ * gets the most.</li>
+ * <li>After every depth, the soft deadline grows when the best move changes
+ * or its score swings, and shrinks when the best move stays the same.</li>
+ * <li>The search stops right away when there is only one move, when the
+ * best move is proven to win or lose, or when the best move stays the same
+ * for several depths and leads the other moves by
+ * {@link AlphaBetaPruning#DOMINANCE_MARGIN}.</li>
+ * </ul>
+ */
+public class TimeManager implements Timer, IterationListener {
+  /** The time of a turn when SetTurn does not give one. */
+  public static final int DEFAULT_MILLISECONDS_FOR_TURN = 1500;
+
+  // Kept for the animation of the move and the latency of the container
+  private static final int SAFETY_MILLISECONDS = 500;
+  private static final int MIN_MILLISECONDS = 100;
+  // The parts of the hard deadline given to the opening and the end game
+  private static final double OPENING_PART = 0.1;
+  private static final double END_GAME_PART = 0.5;
+  // The part given when all the moves are flips
+  private static final double FLIPS_ONLY_PART = 0.02;
+  // The score swing (about a chariot) which makes an iteration unstable
+  private static final int SCORE_SWING = 13;
+  // The number of depths in a row with the same best move before a lead
+  // over the other moves decides the search
+  private static final int STABLE_ITERATIONS = 4;
+  // The bounds of the factor applied to the soft deadline
+  private static final double MIN_FACTOR = 0.4;
+  private static final double MAX_FACTOR = 2.5;
+
+  private final SearchClock clock;
+  private final int hardMilliseconds;
+  private final int baseMilliseconds;
+  private int softMilliseconds;
+  // The stability of the iterations so far
+  private double factor = 1;
+  private Move lastBestMove;
+  private int lastBestScore;
+  private int stableIterations;
+  private boolean isDecided;
+  private volatile boolean isCancelled;
+
+  /**
+   * Starts the clock of a search of the board.
+   *
+   * @param secondsForTurn The numberOfSecondsForTurn of SetTurn, 0 if the
+   *     container did not set one.
+   * @param board The board to search.
+   */
+  public TimeManager(int secondsForTurn, BitBoard board) {
+    this(secondsForTurn, board, Ticker.systemTicker());
+  }
+
+  /** Same as {@link #TimeManager(int, BitBoard)} with the time of the ticker. */
+  TimeManager(int secondsForTurn, BitBoard board, Ticker ticker) {
+    hardMilliseconds = secondsForTurn > 0
+        ? Math.max(secondsForTurn * 1000 - SAFETY_MILLISECONDS, MIN_MILLISECONDS)
+        : DEFAULT_MILLISECONDS_FOR_TURN;
+    clock = SearchClock.withTimeBudget(hardMilliseconds, hardMilliseconds, ticker);
+
+    Set<Move> possibleMoves = new StateExplorerImpl().getPossibleMoves(board);
+    isDecided = possibleMoves.size() <= 1;
+    baseMilliseconds = (int) (hardMilliseconds * getPart(board, possibleMoves));
+    softMilliseconds = baseMilliseconds;
+  }
+
+  /**
+   * Returns the part of the hard deadline the position gets: more with less
+   * face down pieces and more moves to choose from.
+   */
+  private static double getPart(BitBoard board, Set<Move> possibleMoves) {
+    boolean isFlipsOnly = true;
+    for (Move move : possibleMoves) {
+      if (move.getType() != Move.Type.TURN) {
+        isFlipsOnly = false;
+        break;
+      }
+    }
+    if (isFlipsOnly) {
+      return FLIPS_ONLY_PART;
+    }
+
+    double faceDownRatio = (double) Integer.bitCount(board.getFaceDownMask()) / BitBoard.CELLS;
+    double part = END_GAME_PART - (END_GAME_PART - OPENING_PART) * faceDownRatio;
+    // About 16 moves are usual, fewer moves need less time to tell apart
+    double moveFactor = Math.min(Math.max(possibleMoves.size() / 16.0, 0.5), 1.5);
+    return Math.min(part * moveFactor, 1);
+  }
+
+  @Override
+  public void onIterationCompleted(int depth, Move bestMove, int bestScore,
+      int secondBestScore) {
+    if (AlphaBetaPruning.isWinScore(bestScore) || AlphaBetaPruning.isWinScore(-bestScore)) {
+      isDecided = true;
+    } else if (lastBestMove != null) {
+      if (!bestMove.equals(lastBestMove)) {
+        factor *= 1.6;
+        stableIterations = 0;
+      } else {
+        stableIterations++;
+        factor *= Math.abs(bestScore - lastBestScore) >= SCORE_SWING ? 1.3 : 0.8;
+      }
+      factor = Math.min(Math.max(factor, MIN_FACTOR), MAX_FACTOR);
+      // A best move which stays the same and leads the other moves is kept
+      if (stableIterations >= STABLE_ITERATIONS
+          && bestScore - secondBestScore >= AlphaBetaPruning.DOMINANCE_MARGIN) {
+        isDecided = true;
+      }
+    }
+    lastBestMove = bestMove;
+    lastBestScore = bestScore;
+    softMilliseconds = (int) Math.min(baseMilliseconds * factor, hardMilliseconds);
+  }
+
+  /** Time out right away, e.g. when the search is superseded. */
+  public void cancel() {
+    isCancelled = true;
+  }
+
+  @Override
+  public boolean didTimeout() {
+    return isCancelled || clock.didTimeout();
+  }
+
+  @Override
+  public boolean didSoftTimeout() {
+    return isDecided || didTimeout()
+        || clock.getElapsedMilliseconds() >= softMilliseconds;
+  }
+
+  public int getHardMilliseconds() {
+    return hardMilliseconds;
+  }
+
+  public int getSoftMilliseconds() {
+    return softMilliseconds;
+  }
+}
@@ -22,4 +22,11 @@ package org.banqi.ai;
 */
 public interface Timer {
   boolean didTimeout();
+
+  /**
+   * Whether the soft deadline is passed: the search should not start a new
+   * iteration it cannot finish, but may finish the current one until
+   * {@link #didTimeout}.
+   */
+  boolean didSoftTimeout();
 }
\ No newline at end of file
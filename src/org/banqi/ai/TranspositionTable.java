@@ -0,0 +1,131 @@
+package org.banqi.ai;
+
+/**
+ * A fixed-size transposition table indexed by the Zobrist key of the board
+ * ({@link org.banqi.client.BitBoard#getKey()}).
+ * Each entry keeps the bound type, the depth, the score and the best move of
+ * a searched position. When two positions fall in the same slot, the deeper
+ * search is kept, unless the entry is left over from an older search.
+ * <br>
+ * The table can be shared by searches running on several threads without any
+ * lock: an entry is packed in a single long, and the slot holds the entry and
+ * the key XOR the entry. A slot torn by two threads writing at the same time
+ * no longer XORs back to its key, so it is simply not found.
+ * {@link #probe} returns the packed entry and the static getters decode it,
+ * so probing the table allocates nothing.
+ */
+public class TranspositionTable {
+  /** The score is the exact value of the position. */
+  public static final int EXACT = 0;
+  /** The value of the position is at least the score (the search failed high). */
+  public static final int LOWER_BOUND = 1;
+  /** The value of the position is at most the score (the search failed low). */
+  public static final int UPPER_BOUND = 2;
+  /** The best move of an entry which has none. */
+  public static final int NO_MOVE = -1;
+  /** The entry returned by {@link #probe} when the key is not in the table. */
+  public static final long NO_ENTRY = 0;
+
+  private static final int DEFAULT_SIZE_BITS = 16;
+  private static final int MAX_DEPTH = 0xFF;
+
+  private final int indexMask;
+  // The key XOR the entry of each slot
+  private final long[] checks;
+  // score << 32 | (move + 1) << 20 | depth << 12 | generation << 4 | bound << 1 | 1,
+  // 0 is an unused slot
+  private final long[] entries;
+  private volatile int generation;
+
+  public TranspositionTable() {
+    this(DEFAULT_SIZE_BITS);
+  }
+
+  /**
+   * Creates a table of 2^sizeBits entries.
+   */
+  public TranspositionTable(int sizeBits) {
+    int size = 1 << sizeBits;
+    indexMask = size - 1;
+    checks = new long[size];
+    entries = new long[size];
+  }
+
+  /**
+   * Start a new search, the entries of the older searches are replaced first.
+   */
+  public void newSearch() {
+    generation = (generation + 1) & 0xFF;
+  }
+
+  /**
+   * Returns the entry of the key, or {@link #NO_ENTRY} if the key is not in
+   * the table.
+   */
+  public long probe(long key) {
+    int index = index(key);
+    long entry = entries[index];
+    return entry != NO_ENTRY && (checks[index] ^ entry) == key ? entry : NO_ENTRY;
+  }
+
+  public static int getDepth(long entry) {
+    return (int) (entry >>> 12) & 0xFF;
+  }
+
+  public static int getBound(long entry) {
+    return (int) (entry >>> 1) & 0x3;
+  }
+
+  public static int getScore(long entry) {
+    return (int) (entry >> 32);
+  }
+
+  public static int getMove(long entry) {
+    return ((int) (entry >>> 20) & 0xFFF) - 1;
+  }
+
+  /**
+   * Store the result of a search, replacing the entry in the slot if it is
+   * the same position, an entry of an older search or a shallower search.
+   */
+  public void store(long key, int depth, int score, int bound, int move) {
+    int index = index(key);
+    long oldEntry = entries[index];
+    int currentGeneration = generation;
+    if (oldEntry != NO_ENTRY && (checks[index] ^ oldEntry) != key
+        && ((int) (oldEntry >>> 4) & 0xFF) == currentGeneration
+        && getDepth(oldEntry) > depth) {
+      return;
+    }
+    long entry = (long) score << 32
+        | (long) ((move + 1) & 0xFFF) << 20
+        | Math.min(depth, MAX_DEPTH) << 12
+        | currentGeneration << 4
+        | bound << 1
+        | 1;
+    checks[index] = key ^ entry;
+    entries[index] = entry;
+  }
+
+  /** Remove all the entries. */
+  public void clear() {
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = NO_ENTRY;
+      checks[i] = 0;
+    }
+  }
+
+  /**
+   * Write the check and the entry of the slot of the key as they are, e.g.
+   * the slot left by two threads storing at the same time in the tests.
+   */
+  void writeSlot(long key, long check, long entry) {
+    int index = index(key);
+    checks[index] = check;
+    entries[index] = entry;
+  }
+
+  private int index(long key) {
+    return (int) (key ^ (key >>> 32)) & indexMask;
+  }
+}
@@ -0,0 +1,152 @@
+package org.banqi.ai.parallel;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.banqi.ai.AlphaBetaPruning;
+import org.banqi.ai.Heuristic;
+import org.banqi.ai.SearchStatistics;
+import org.banqi.ai.Timer;
+import org.banqi.ai.TranspositionTable;
+import org.banqi.client.BanqiState;
+import org.banqi.client.Move;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Lazy SMP: the main search runs {@link AlphaBetaPruning#findBestMove} on the
+ * calling thread while N helper threads search the same root. Every search
+ * is its own {@link AlphaBetaPruning}, with its own board and counts, and
+ * they only share one lock-free {@link TranspositionTable}, so the helpers
+ * fill it with positions the main search finds later, which lets the main
+ * search go deeper with more threads. Every helper skips some depths of its
+ * iterative deepening ({@link AlphaBetaPruning#setHelper}), so at every
+ * iteration the searches are spread over several depths instead of all
+ * searching the same tree. All the searches store their entries in one
+ * search of the table ({@link TranspositionTable#newSearch}), started before
+ * any of them.
+ * The best move of the main search is returned when the timer times out,
+ * the results of the helpers are thrown away.
+ *
+ * This class uses threads, so it is not part of the GWT client.
+ */
+public class LazySmpSearch {
+  private static final int TABLE_SIZE_BITS = 20;
+
+  private final Heuristic heuristic;
+  private final int helperCount;
+  private final TranspositionTable transpositionTable;
+  private final ExecutorService executor;
+  // The counts of the main search and of the helpers
+  private final SearchStatistics statistics = new SearchStatistics();
+
+  /**
+   * @param heuristic The heuristic used by all the searches.
+   * @param helperCount The number of helper threads (N), e.g. the number of
+   *     cores minus one.
+   */
+  public LazySmpSearch(Heuristic heuristic, int helperCount) {
+    this(heuristic, helperCount, new TranspositionTable(TABLE_SIZE_BITS));
+  }
+
+  /**
+   * @param heuristic The heuristic used by all the searches.
+   * @param helperCount The number of helper threads (N).
+   * @param transpositionTable The table shared by all the searches.
+   */
+  public LazySmpSearch(Heuristic heuristic, int helperCount,
+      TranspositionTable transpositionTable) {
+    this.heuristic = heuristic;
+    this.helperCount = helperCount;
+    this.transpositionTable = transpositionTable;
+    this.executor = Executors.newFixedThreadPool(Math.max(helperCount, 1));
+  }
+
+  /**
+   * Search the state with the helpers and return the best move of the main
+   * search.
+   *
+   * @param banqiState The current state.
+   * @param depth The maximum depth of the search.
+   * @param timer The deadline of the search.
+   * @return bestMove The best move of the main search.
+   */
+  public Move findBestMove(BanqiState banqiState, final int depth, final Timer timer) {
+    final HelperTimer helperTimer = new HelperTimer(timer);
+    transpositionTable.newSearch();
+    List<Future<?>> helpers = Lists.newArrayList();
+    for (int i = 0; i < helperCount; i++) {
+      final AlphaBetaPruning helper =
+          new AlphaBetaPruning(heuristic, banqiState, transpositionTable, statistics);
+      helper.setHelper(i + 1);
+      helpers.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          helper.findBestMove(depth, helperTimer);
+        }
+      }));
+    }
+
+    try {
+      AlphaBetaPruning ai =
+          new AlphaBetaPruning(heuristic, banqiState, transpositionTable, statistics);
+      ai.continueSearch();
+      return ai.findBestMove(depth, timer);
+    } finally {
+      // Stop the helpers, the next search must not share the table with them
+      helperTimer.stop();
+      for (Future<?> helper : helpers) {
+        waitFor(helper);
+      }
+    }
+  }
+
+  public SearchStatistics getStatistics() {
+    return statistics;
+  }
+
+  /** Stop the helper threads. */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  private void waitFor(Future<?> helper) {
+    try {
+      helper.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Times out with the timer of the main search, or as soon as the main
+   * search is done.
+   */
+  private static class HelperTimer implements Timer {
+    private final Timer timer;
+    private volatile boolean stopped = false;
+
+    HelperTimer(Timer timer) {
+      this.timer = timer;
+    }
+
+    void stop() {
+      stopped = true;
+    }
+
+    @Override
+    public boolean didTimeout() {
+      return stopped || timer.didTimeout();
+    }
+
+    @Override
+    public boolean didSoftTimeout() {
+      return stopped || timer.didSoftTimeout();
+    }
+  }
+}
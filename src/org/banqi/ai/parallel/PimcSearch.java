@@ -0,0 +1,215 @@
+package org.banqi.ai.parallel;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.banqi.ai.AlphaBetaPruning;
+import org.banqi.ai.Heuristic;
+import org.banqi.ai.IterationListener;
+import org.banqi.ai.SearchStatistics;
+import org.banqi.ai.Timer;
+import org.banqi.ai.TranspositionTable;
+import org.banqi.client.BanqiState;
+import org.banqi.client.BitBoard;
+import org.banqi.client.Move;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Perfect Information Monte Carlo search: K determinized worlds are sampled
+ * with {@link AlphaBetaPruning#getFullState}, i.e. all the face down pieces
+ * are shuffled and revealed, and every world is searched by its own
+ * {@link AlphaBetaPruning} in parallel on a fork-join pool.
+ * The worlds are deepened together, one depth per round, until the shared
+ * timer times out: a round searches every world one depth deeper, so with
+ * more worlds than threads the worlds queued behind the others still get
+ * the same depth. The move chosen is the one with the best average score
+ * over all the worlds, or the one most worlds voted for, at the last depth
+ * every world completed.
+ *
+ * This class uses threads, so it is not part of the GWT client.
+ */
+public class PimcSearch {
+  /** How the results of the worlds are combined. */
+  public enum Aggregation {
+    /** The move with the best average score wins. */
+    SCORE,
+    /** The move which is the best move in most worlds wins. */
+    VOTE
+  }
+
+  private final Heuristic heuristic;
+  private final int worldCount;
+  private final Aggregation aggregation;
+  private final ForkJoinPool pool;
+  // The counts of the searches of all the worlds
+  private final SearchStatistics statistics = new SearchStatistics();
+  // The depth of the scores combined by the last search, 0 if none
+  private int completedDepth;
+
+  /**
+   * @param heuristic The heuristic used by the search of every world.
+   * @param worldCount The number of determinized worlds (K) sampled per move.
+   * @param parallelism The number of worlds searched at the same time.
+   * @param aggregation How the results of the worlds are combined.
+   */
+  public PimcSearch(Heuristic heuristic, int worldCount, int parallelism,
+      Aggregation aggregation) {
+    this.heuristic = heuristic;
+    this.worldCount = worldCount;
+    this.aggregation = aggregation;
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Search the worlds and return the best move of the state.
+   *
+   * @param banqiState The current state.
+   * @param depth The maximum depth of the search of each world.
+   * @param timer The deadline shared by all the worlds.
+   * @return bestMove The best move over all the worlds.
+   */
+  public Move findBestMove(BanqiState banqiState, int depth, Timer timer) {
+    List<World> worlds = Lists.newArrayList();
+    for (int i = 0; i < worldCount; i++) {
+      worlds.add(new World(banqiState, timer));
+    }
+
+    // The scores of every world at the completed depth
+    List<Map<Move, Integer>> completedScores = Lists.newArrayList();
+    completedDepth = 0;
+    for (int i = 1; i <= depth; i++) {
+      List<Map<Move, Integer>> scores = Lists.newArrayList();
+      for (Future<Map<Move, Integer>> world : pool.invokeAll(worlds)) {
+        Map<Move, Integer> moveScores = getResult(world);
+        if (moveScores != null) {
+          scores.add(moveScores);
+        }
+      }
+      if (scores.size() == worldCount || completedDepth == 0) {
+        // Until the first depth is completed, the worlds which completed it
+        // are better than none
+        completedScores = scores;
+        completedDepth = scores.isEmpty() ? 0 : i;
+      }
+      if (scores.size() < worldCount || timer.didSoftTimeout()) {
+        break;
+      }
+    }
+
+    // The score sum, the number of scores and the number of votes of each move
+    Map<Move, long[]> totals = Maps.newLinkedHashMap();
+    for (Map<Move, Integer> moveScores : completedScores) {
+      boolean isBestMove = true;
+      for (Map.Entry<Move, Integer> entry : moveScores.entrySet()) {
+        long[] total = totals.get(entry.getKey());
+        if (total == null) {
+          total = new long[3];
+          totals.put(entry.getKey(), total);
+        }
+        total[0] += entry.getValue();
+        total[1]++;
+        if (isBestMove) {
+          total[2]++;
+          isBestMove = false;
+        }
+      }
+    }
+
+    Move bestMove = null;
+    double bestScore = 0;
+    long bestVotes = 0;
+    for (Map.Entry<Move, long[]> entry : totals.entrySet()) {
+      long[] total = entry.getValue();
+      double score = (double) total[0] / total[1];
+      boolean isBetter = aggregation == Aggregation.VOTE
+          ? total[2] > bestVotes || (total[2] == bestVotes && score > bestScore)
+          : score > bestScore;
+      if (bestMove == null || isBetter) {
+        bestMove = entry.getKey();
+        bestScore = score;
+        bestVotes = total[2];
+      }
+    }
+
+    if (bestMove == null) {
+      // No world searched a single move before the timeout
+      return new AlphaBetaPruning(heuristic, banqiState).findBestMove(1, timer);
+    }
+    return bestMove;
+  }
+
+  public SearchStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Returns the depth of the scores the last search combined, 0 if no world
+   * completed a depth.
+   */
+  public int getCompletedDepth() {
+    return completedDepth;
+  }
+
+  /** Stop the threads of the pool. */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  private Map<Move, Integer> getResult(Future<Map<Move, Integer>> world) {
+    try {
+      return world.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * A determinized world, searched one depth deeper by every call. Its own
+   * transposition table keeps the results of the previous depths.
+   */
+  private class World implements Callable<Map<Move, Integer>>, IterationListener {
+    private final AlphaBetaPruning ai;
+    private final Timer timer;
+    // The depth completed so far
+    private int depth = 0;
+    private boolean isCompleted;
+
+    World(BanqiState banqiState, Timer timer) {
+      this.ai = new AlphaBetaPruning(heuristic, banqiState, new TranspositionTable(), statistics);
+      this.timer = timer;
+      ai.setFullState(ai.getFullState(BitBoard.fromState(banqiState)));
+      ai.setIterationListener(this);
+    }
+
+    /**
+     * Returns the scores of the moves at the next depth, null if the timer
+     * timed out before the depth was completed.
+     */
+    @Override
+    public Map<Move, Integer> call() {
+      isCompleted = false;
+      ai.setStartDepth(depth);
+      Map<Move, Integer> moveScores = ai.findMoveScores(depth + 1, timer);
+      if (!isCompleted) {
+        return null;
+      }
+      depth++;
+      return moveScores;
+    }
+
+    @Override
+    public void onIterationCompleted(int depth, Move bestMove, int bestScore,
+        int secondBestScore) {
+      isCompleted = true;
+    }
+  }
+}
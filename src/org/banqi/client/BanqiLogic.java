@@ -33,7 +33,6 @@ public class BanqiLogic {
   private static final String MOVEPIECE = "movePiece";
   private static final String CAPTUREPIECE = "capturePiece";
   private static final Piece NULL = null;
-  private static final Boolean INSAMEROW = true;
   
   public VerifyMoveDone verify(VerifyMove verifyMove) {
     try {
@@ -86,49 +85,21 @@ public class BanqiLogic {
   }
   
   /**
-   * Calculate the number of pieces on the board from the capturer inclusive to
-   * the captured exclusive.
-   **/
-  int computeIntermediatePieceCount(List<Optional<Piece>> cells,
-      int fromCoord,
-      int toCoord,
-      boolean inSameRow) {
-    int intermediatePieceCount = 0;
-    int incr = inSameRow ? 1 : 8;
-    incr = fromCoord < toCoord ? incr : -incr;
-    
-    for (int i = fromCoord; i != toCoord; i += incr) {
-      if (!cells.get(i).isPresent()
-          || (cells.get(i).isPresent()
-              && cells.get(i).get().getKind() != Piece.Kind.EMPTY)) {
-        intermediatePieceCount++;
-      }
-    }
-
-    return intermediatePieceCount;
-  }
-  
-  /** Check the cannon can do the capture move. */
+   * Check the cannon can do the capture move: the cannon and the captured
+   * are in the same row or column with exactly one piece (the screen)
+   * between them, see {@link BoardTables#getCannonTargets}.
+   */
   boolean canCannonCapture(List<Optional<Piece>> cells,
       int fromCoord,
       int toCoord) {
-    
-    int intermediatePieceCount = 0;
-    
-    //Both pieces are in the same row
-    if (fromCoord / 8 == toCoord / 8) {
-      intermediatePieceCount = 
-          computeIntermediatePieceCount(cells, fromCoord, toCoord, INSAMEROW);
-    } else { //Both pieces are in the same column
-      intermediatePieceCount = 
-          computeIntermediatePieceCount(cells, fromCoord, toCoord, !INSAMEROW);
-    }
-    
-    //check(intermediatePieceCount == 2, intermediatePieceCount);
-    if (intermediatePieceCount != 2) {
-      return false;
+    // Face down pieces are screens too, the captured cell counts as occupied
+    int occupiedMask = 1 << toCoord;
+    for (int i = 0; i < cells.size(); i++) {
+      if (!cells.get(i).isPresent() || cells.get(i).get().getKind() != Piece.Kind.EMPTY) {
+        occupiedMask |= 1 << i;
+      }
     }
-    return true;
+    return (BoardTables.getCannonTargets(fromCoord, occupiedMask) & (1 << toCoord)) != 0;
   }
   
   /** Check the piece can do the capture move. */
@@ -137,23 +108,12 @@ public class BanqiLogic {
     Piece fromPiece = cells.get(fromCoord).get();
     Piece toPiece = cells.get(toCoord).get();
 
-    if (fromPiece.getKind() == Piece.Kind.SOLDIER
-        && toPiece.getKind() == Piece.Kind.GENERAL) {
-      return isMoveCoordLegal(fromCoord, toCoord);
-    } else if (fromPiece.getKind() == Piece.Kind.GENERAL
-        && toPiece.getKind() == Piece.Kind.SOLDIER) {
-      // A general can not capture a soldier
-      return false;
-    } else if (fromPiece.getKind() == Piece.Kind.CANNON) {
+    if (fromPiece.getKind() == Piece.Kind.CANNON) {
       return canCannonCapture(cells, fromCoord, toCoord);
-    } else {
-      check(isMoveCoordLegal(fromCoord, toCoord));
-      if (fromPiece.getKind() != toPiece.getKind()) {
-        return (fromPiece.getKind().ordinal() < toPiece.getKind().ordinal());
-      } else {
-        return true;
-      }
     }
+    // The other pieces capture an adjacent piece, by rank (see BoardTables)
+    return isMoveCoordLegal(fromCoord, toCoord)
+        && BoardTables.canCapture(fromPiece.getKind().ordinal(), toPiece.getKind().ordinal());
   }
 
   /** Returns the operations for moving a piece (e.g., I move a piece from S0 to S1). */
@@ -441,7 +401,7 @@ public class BanqiLogic {
       if (pieceString != null) {
         PieceColor color = PieceColor.fromFirstLetterLowerCase(pieceString.substring(0, 1));
         Kind kind = Kind.fromFirstThreeLetterLowerCase(pieceString.substring(1, 4));
-        cells.add(Optional.fromNullable(new Piece(kind, color)));
+        cells.add(Optional.fromNullable(Piece.of(kind, color)));
       } else {
         cells.add(Optional.fromNullable(NULL));
       }
@@ -453,7 +413,7 @@ public class BanqiLogic {
     for (String pieceString : capturedPiecesString) {
       String pieceColor = pieceString.substring(0, 1);
       String pieceKind = pieceString.substring(1);
-      Piece piece = new Piece(Piece.Kind.fromFirstThreeLetterLowerCase(pieceKind),
+      Piece piece = Piece.of(Piece.Kind.fromFirstThreeLetterLowerCase(pieceKind),
           Piece.PieceColor.fromFirstLetterLowerCase(pieceColor));
       capturedPieces.add(piece);
     }
@@ -2,9 +2,10 @@ package org.banqi.client;
 
 import java.util.List;
 
+import org.banqi.ai.AiSession;
 import org.banqi.ai.AlphaBetaPruning;
-import org.banqi.ai.DateTimer;
-import org.banqi.ai.Heuristic;
+import org.banqi.ai.InformationSetMcts;
+import org.banqi.ai.TimeManager;
 import org.game_api.GameApi.Container;
 import org.game_api.GameApi.Operation;
 import org.game_api.GameApi.Set;
@@ -24,6 +25,14 @@ import com.google.gwt.user.client.Timer;
  */
 public class BanqiPresenter {
 
+  /** The engines the AI player can use. */
+  public enum AiEngine {
+    /** Iterative deepening alpha-beta search, see {@link AlphaBetaPruning}. */
+    ALPHA_BETA,
+    /** Information Set Monte Carlo Tree Search, see {@link InformationSetMcts}. */
+    ISMCTS
+  }
+
   public interface Dropper {
     void onDrop(Position pos);
   }
@@ -91,6 +100,20 @@ public class BanqiPresenter {
   private Optional<Color> myColor;
   private BanqiState banqiState;
   private List<Integer> selectedCells;
+  private AiEngine aiEngine = AiEngine.ALPHA_BETA;
+  // The numberOfSecondsForTurn of the last SetTurn, 0 if none
+  private int secondsForTurn;
+  // Due to the time limit, the search may not reach that deep
+  private static final int MAX_SEARCH_DEPTH = 50;
+  // The AI searches while the player thinks, in slices of that many
+  // milliseconds, leaving the browser the rest of every period
+  private static final int PONDER_SLICE_MILLISECONDS = 50;
+  private static final int PONDER_PERIOD_MILLISECONDS = 100;
+  // The AI of the current game, kept between its moves
+  private AiSession aiSession;
+  // The timers of the move and of the pondering of the AI, null if none
+  private Timer aiTimer;
+  private Timer ponderTimer;
   // A move has the form: [from, to]
   private static final String MOVEPIECE = "movePiece";
   //A turn has the form: [coordinate]
@@ -108,6 +131,14 @@ public class BanqiPresenter {
     this.fromCellIndex = fromCellIndex;
   }
 
+  public AiEngine getAiEngine() {
+    return aiEngine;
+  }
+
+  public void setAiEngine(AiEngine aiEngine) {
+    this.aiEngine = aiEngine;
+  }
+
   public BanqiPresenter(View view, Container container) {
     this.view = view;
     this.container = container;
@@ -125,6 +156,22 @@ public class BanqiPresenter {
 
     selectedCells = Lists.newArrayList();
 
+    // The update supersedes the search and the move of the AI in progress
+    stopPondering();
+    if (aiTimer != null) {
+      aiTimer.cancel();
+      aiTimer = null;
+      hasAiMakeMove = false;
+    }
+    if (aiSession != null) {
+      aiSession.cancel();
+    }
+    if (aiSession == null || !aiSession.isSessionOf(playerIds)
+        || updateUI.getState().isEmpty()) {
+      // A new game
+      aiSession = new AiSession(playerIds);
+    }
+
     if (updateUI.getState().isEmpty()) {
       // The R player sends the initial setup move.
       if (myColor.isPresent() && myColor.get().isRed()) {
@@ -134,12 +181,14 @@ public class BanqiPresenter {
     }
 
     Color turnOfColor = null;
+    secondsForTurn = 0;
     // The order of operations: turn, movePiece, turnPiece, capturePiece,
     // C0...C31
     for (Operation operation : updateUI.getLastMove()) {
       if (operation instanceof SetTurn) {
         turnOfColor = Color.values()[playerIds.indexOf(((SetTurn) operation)
             .getPlayerId())];
+        secondsForTurn = ((SetTurn) operation).getNumberOfSecondsForTurn();
       }
     }
 
@@ -156,21 +205,31 @@ public class BanqiPresenter {
     if (updateUI.isAiPlayer() && !hasAiMakeMove) {
       hasAiMakeMove = true;
         
-      Timer aiTimer = new Timer() {
+      aiTimer = new Timer() {
         public void run() {
+          aiTimer = null;
           if (banqiState.getWinner() != Color.N) {
             // The game is over, send the end Game operation
             endGame();
           } else {
             // The game is not over, make the move :)
-            Heuristic heuristic = new Heuristic();
-            AlphaBetaPruning ai = new AlphaBetaPruning(heuristic, banqiState);
-            
-            // The move of the AI takes at most 1.5 second
-            DateTimer timer = new DateTimer((int) (1.5 * 1000));
+            // The time of the move depends on the time of the turn and the position
+            TimeManager timeManager = aiSession.newTimeManager(secondsForTurn, banqiState);
             
-            // The depth is 50 though due to the time limit, it may not reach that deep
-            Move bestMove = ai.findBestMove(50, timer);
+            Move bestMove;
+            if (aiEngine == AiEngine.ISMCTS) {
+              InformationSetMcts ismcts =
+                  new InformationSetMcts(aiSession.getHeuristic(), banqiState);
+              ismcts.setIterationListener(timeManager);
+              bestMove = ismcts.findBestMove(timeManager);
+            } else {
+              // The session keeps what the previous searches and the pondering found
+              bestMove = aiSession.findBestMove(banqiState, MAX_SEARCH_DEPTH, timeManager);
+            }
+            if (bestMove == null) {
+              // The pieces of the AI are all blocked, it has no move to make
+              return;
+            }
             
             // AI make the move.
             int selectedFromCoord = ((bestMove.getFrom().getRow() - 1) * 8
@@ -212,6 +271,11 @@ public class BanqiPresenter {
 
     // Must be a player!
     if (isMyTurn()) {
+      if (hasAiMakeMove && aiEngine == AiEngine.ALPHA_BETA
+          && banqiState.getWinner() == Color.N) {
+        // The AI just moved, it thinks while the player does
+        startPondering();
+      }
       hasAiMakeMove = false;
       Timer playerTimer = new Timer() {
         public void run() {
@@ -228,6 +292,26 @@ public class BanqiPresenter {
     }
   }
 
+  private void startPondering() {
+    stopPondering();
+    aiSession.startPondering(banqiState);
+    ponderTimer = new Timer() {
+      public void run() {
+        if (!aiSession.ponder(PONDER_SLICE_MILLISECONDS)) {
+          cancel();
+        }
+      }
+    };
+    ponderTimer.scheduleRepeating(PONDER_PERIOD_MILLISECONDS);
+  }
+
+  private void stopPondering() {
+    if (ponderTimer != null) {
+      ponderTimer.cancel();
+      ponderTimer = null;
+    }
+  }
+
   /** Get all cells from the state. */
   List<Piece> getAllCells(BanqiState banqiState) {
     List<Optional<Piece>> cells = banqiState.getCells();
@@ -20,6 +20,11 @@ public class BanqiState {
    * there's no piece in the cell, then the kind of the piece will be EMPTY.
    */
   private ImmutableList<Optional<Piece>> cells;
+  // The number of facing-down pieces and of pieces of each color on the
+  // board, counted whenever the cells are set
+  private int faceDownCount;
+  private int redCount;
+  private int blackCount;
   // A list of all captured pieces
   private ImmutableList<Piece> capturedPieces;
   private ImmutableList<String> playerIds;
@@ -34,6 +39,7 @@ public class BanqiState {
     this.playerIds = checkNotNull(playerIds);
     this.cells = checkNotNull(cells);
     this.capturedPieces = capturedPieces;
+    countPieces();
   }
 
   /**
@@ -42,31 +48,14 @@ public class BanqiState {
    * @return Color Return the winner's color or null if the game is not over yet.
    */
   public Color getWinner() {
-    boolean hasRed = false;
-    boolean hasBlack = false;
-    
-    // Traverse every cell of the board
-    for (Optional<Piece> piece : cells) {
-      if (!piece.isPresent()) {
-        // At least one facing-down piece on the board, so no winner
-        return Color.N;
-      } else if (piece.get().getKind() != Piece.Kind.EMPTY) {
-        // If there's at least one piece for each color, no winner
-        if (hasRed && hasBlack) {
-          return Color.N;
-        }
-
-        switch(piece.get().getPieceColor().name().substring(0, 1)) {
-          case "R": hasRed = true; break;
-          case "B": hasBlack = true; break;
-          default: hasRed = true; break;
-        }
-      }
+    // At least one facing-down piece on the board, so no winner
+    if (faceDownCount > 0) {
+      return Color.N;
     }
     
-    if (hasRed && !hasBlack) {
+    if (redCount > 0 && blackCount == 0) {
       return Color.R;
-    } else if (!hasRed && hasBlack) {
+    } else if (redCount == 0 && blackCount > 0) {
       return Color.B;
     }
     
@@ -119,6 +108,26 @@ public class BanqiState {
 //    return (hasBlack ^ hasRed) && !hasFacingDownPiece();
 //  }
 
+  /**
+   * Count the facing-down pieces and the pieces of each color of the cells.
+   */
+  private void countPieces() {
+    faceDownCount = 0;
+    redCount = 0;
+    blackCount = 0;
+    for (Optional<Piece> piece : cells) {
+      if (!piece.isPresent()) {
+        faceDownCount++;
+      } else if (piece.get().getKind() != Piece.Kind.EMPTY) {
+        if (piece.get().getPieceColor() == Piece.PieceColor.BLACK) {
+          blackCount++;
+        } else {
+          redCount++;
+        }
+      }
+    }
+  }
+
   public Color getTurn() {
     return turn;
   }
@@ -141,6 +150,7 @@ public class BanqiState {
 
   public void setCells(List<Optional<Piece>> cells) {
     this.cells = ImmutableList.copyOf(cells);
+    countPieces();
   }
 
   public List<Piece> getCapturedPieces() {
@@ -0,0 +1,458 @@
+package org.banqi.client;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * A compact representation of the banqi board built from 32-bit occupancy
+ * masks. Bit i of a mask refers to cell Ci (row = i / 8 + 1, col = i % 8 + 1).
+ *
+ * Every face up piece is identified by a piece code:
+ * code = color * 7 + kind, where color is the ordinal of {@link Piece.PieceColor}
+ * (RED or BLACK) and kind is the ordinal of {@link Piece.Kind} (GENERAL to
+ * SOLDIER). Two more codes are used for the cells without a face up piece:
+ * {@link #EMPTY} and {@link #FACE_DOWN}.
+ *
+ * The board keeps one mask per piece code, one mask per color, a face down
+ * mask and an empty mask, plus a piece code per cell so the piece in a cell
+ * can be read without scanning the masks. It converts losslessly to and from
+ * {@link BanqiState}.
+ *
+ * The board also keeps an inventory of the number of face up, face down and
+ * captured pieces of each piece code, and the material: the sum of the
+ * {@link #getKindValue values} of the pieces still in the game (face
+ * up or face down), positive for the black and negative for the red. Both are
+ * updated with every change, so they are read without scanning the board.
+ */
+public class BitBoard {
+  /** Number of codes used by face up pieces (7 kinds * 2 colors). */
+  public static final int PIECE_CODES = 14;
+  /** The code of an empty cell. */
+  public static final int EMPTY = 14;
+  /** The code of a cell containing a face down piece. */
+  public static final int FACE_DOWN = 15;
+  /** The number of cells of the board. */
+  public static final int CELLS = 32;
+  /** The number of kinds of pieces (EMPTY excluded). */
+  public static final int KINDS = 7;
+
+  private static final int UNDO_SIZE = 4;
+  // The offsets of the counts in the inventory
+  private static final int FACE_UP_COUNTS = 0;
+  private static final int FACE_DOWN_COUNTS = PIECE_CODES;
+  private static final int CAPTURED_COUNTS = 2 * PIECE_CODES;
+  private static final Move.Type[] TYPE_VALUES = Move.Type.values();
+
+  // The number of pieces of each kind of one color at the beginning of the game
+  private static final int[] PIECES_PER_KIND = {1, 2, 2, 2, 2, 2, 5};
+  // The basic value of each kind of piece, note that although cannon is
+  // vulnerable to most pieces, it also can capture all kinds of pieces, so it
+  // has a relatively high value
+  private static final int[] VALUES_PER_KIND = {111, 55, 27, 13, 6, 55, 1};
+  private static final Piece.Kind[] KIND_VALUES = Piece.Kind.values();
+  private static final Piece.PieceColor[] COLOR_VALUES = Piece.PieceColor.values();
+
+  // Zobrist keys of every (cell, code) pair, the key of an empty cell is 0
+  private static final long[] CELL_KEYS = new long[CELLS * 16];
+  // Zobrist keys of the n-th captured piece of every code
+  private static final long[] CAPTURED_KEYS = new long[PIECE_CODES * CELLS];
+  // Zobrist key of the black player's turn
+  private static final long BLACK_TURN_KEY;
+
+  static {
+    Random random = new Random(20140501L);
+    for (int cell = 0; cell < CELLS; cell++) {
+      for (int code = 0; code < 16; code++) {
+        CELL_KEYS[cell * 16 + code] = code == EMPTY ? 0 : random.nextLong();
+      }
+    }
+    for (int i = 0; i < CAPTURED_KEYS.length; i++) {
+      CAPTURED_KEYS[i] = random.nextLong();
+    }
+    BLACK_TURN_KEY = random.nextLong();
+  }
+
+  private final int[] pieceMasks = new int[PIECE_CODES];
+  private final int[] colorMasks = new int[2];
+  private int faceDownMask;
+  private int emptyMask;
+  // The piece code of each cell
+  private final int[] cells = new int[CELLS];
+  // The codes of all captured pieces, in the order they were captured
+  private final int[] capturedPieces = new int[CELLS];
+  private int capturedCount;
+  // The number of face up, face down and captured pieces of each code
+  private final int[] inventory = new int[3 * PIECE_CODES];
+  // The sum of the values of the pieces in the game, black minus red
+  private int material;
+  // The Zobrist key of the board, updated whenever the board changes
+  private long key;
+  private final ImmutableList<String> playerIds;
+  private Color turn;
+  // The undo stack of the moves done by doMove, UNDO_SIZE ints per move:
+  // from, to, type ordinal and the code which was in the cell of to
+  private int[] undoStack = new int[UNDO_SIZE * 64];
+  private int undoCount;
+
+  private BitBoard(Color turn, ImmutableList<String> playerIds) {
+    this.turn = checkNotNull(turn);
+    this.playerIds = checkNotNull(playerIds);
+    Arrays.fill(cells, EMPTY);
+    emptyMask = ~0;
+    key = turn.isBlack() ? BLACK_TURN_KEY : 0;
+  }
+
+  /**
+   * Create the bit board of a state.
+   *
+   * @param state The state to convert.
+   * @return board The bit board holding the same cells, captured pieces and turn.
+   */
+  public static BitBoard fromState(BanqiState state) {
+    BitBoard board = new BitBoard(state.getTurn(), state.getPlayerIds());
+    List<Optional<Piece>> stateCells = state.getCells();
+    for (int i = 0; i < CELLS; i++) {
+      board.setCell(i, toCode(stateCells.get(i)));
+    }
+    for (Piece piece : state.getCapturedPieces()) {
+      board.addCapturedPiece(toCode(Optional.of(piece)));
+    }
+    // The face down pieces are the ones neither face up nor captured, and
+    // the material counts the pieces of a full set less the captured ones
+    board.material = 0;
+    for (int code = 0; code < PIECE_CODES; code++) {
+      int count = getInitialCount(kindOf(code)) - board.inventory[CAPTURED_COUNTS + code];
+      board.inventory[FACE_DOWN_COUNTS + code] = count - board.inventory[FACE_UP_COUNTS + code];
+      board.material += count * getMaterialValue(code);
+    }
+    return board;
+  }
+
+  /**
+   * Convert the bit board back to a state.
+   *
+   * @return state The state holding the same cells, captured pieces and turn.
+   */
+  public BanqiState toState() {
+    List<Optional<Piece>> stateCells = Lists.newArrayList();
+    for (int i = 0; i < CELLS; i++) {
+      stateCells.add(toCell(cells[i]));
+    }
+    List<Piece> stateCapturedPieces = Lists.newArrayList();
+    for (int i = 0; i < capturedCount; i++) {
+      stateCapturedPieces.add(toCell(capturedPieces[i]).get());
+    }
+    return new BanqiState(turn, playerIds,
+        ImmutableList.copyOf(stateCells),
+        ImmutableList.copyOf(stateCapturedPieces));
+  }
+
+  public BitBoard copy() {
+    BitBoard board = new BitBoard(turn, playerIds);
+    System.arraycopy(pieceMasks, 0, board.pieceMasks, 0, PIECE_CODES);
+    System.arraycopy(colorMasks, 0, board.colorMasks, 0, 2);
+    System.arraycopy(cells, 0, board.cells, 0, CELLS);
+    System.arraycopy(capturedPieces, 0, board.capturedPieces, 0, capturedCount);
+    System.arraycopy(inventory, 0, board.inventory, 0, inventory.length);
+    board.faceDownMask = faceDownMask;
+    board.emptyMask = emptyMask;
+    board.capturedCount = capturedCount;
+    board.key = key;
+    board.material = material;
+    return board;
+  }
+
+  /**
+   * Get the winner, if the game is not ended, return {@link Color#N}.
+   * The semantics are the same as {@link BanqiState#getWinner()}.
+   */
+  public Color getWinner() {
+    if (faceDownMask != 0) {
+      return Color.N;
+    }
+    boolean hasRed = colorMasks[0] != 0;
+    boolean hasBlack = colorMasks[1] != 0;
+    if (hasRed && !hasBlack) {
+      return Color.R;
+    } else if (!hasRed && hasBlack) {
+      return Color.B;
+    }
+    return Color.N;
+  }
+
+  /** Move the piece in from to the empty cell to. */
+  public void movePiece(int from, int to) {
+    int code = cells[from];
+    setCell(from, EMPTY);
+    setCell(to, code);
+  }
+
+  /** Capture the piece in to with the piece in from. */
+  public void capturePiece(int from, int to) {
+    int code = cells[from];
+    addCapturedPiece(cells[to]);
+    setCell(from, EMPTY);
+    setCell(to, code);
+  }
+
+  /** Turn up the face down piece in cell which is revealed as code. */
+  public void turnPiece(int cell, int code) {
+    setCell(cell, code);
+  }
+
+  /**
+   * Do the move in place and push it on the undo stack so it can be undone by
+   * {@link #undoMove()}. The turn is set to the next player.
+   *
+   * @param from The cell the move starts from.
+   * @param to The cell the move ends in (same as from for a TURN move).
+   * @param type The type of the move.
+   * @param turnedCode The code the face down piece is revealed as for a TURN
+   *     move, ignored otherwise.
+   */
+  public void doMove(int from, int to, Move.Type type, int turnedCode) {
+    if (undoCount * UNDO_SIZE == undoStack.length) {
+      undoStack = Arrays.copyOf(undoStack, undoStack.length * 2);
+    }
+    int top = undoCount * UNDO_SIZE;
+    undoStack[top] = from;
+    undoStack[top + 1] = to;
+    undoStack[top + 2] = type.ordinal();
+    undoStack[top + 3] = cells[to];
+    undoCount++;
+
+    switch (type) {
+      case CAPTURE: capturePiece(from, to); break;
+      case TURN: turnPiece(from, turnedCode); break;
+      default: movePiece(from, to); break;
+    }
+    setNextTurn();
+  }
+
+  /** Undo the last move done by {@link #doMove}, restoring cells, captured pieces and turn. */
+  public void undoMove() {
+    undoCount--;
+    int top = undoCount * UNDO_SIZE;
+    int from = undoStack[top];
+    int to = undoStack[top + 1];
+    int oldToCode = undoStack[top + 3];
+
+    switch (TYPE_VALUES[undoStack[top + 2]]) {
+      case CAPTURE:
+        removeLastCapturedPiece();
+        setCell(from, cells[to]);
+        setCell(to, oldToCode);
+        break;
+      case TURN:
+        setCell(from, oldToCode);
+        break;
+      default:
+        setCell(from, cells[to]);
+        setCell(to, oldToCode);
+        break;
+    }
+    setNextTurn();
+  }
+
+  /** Returns the number of moves on the undo stack. */
+  public int getUndoCount() {
+    return undoCount;
+  }
+
+  private void addCapturedPiece(int code) {
+    capturedPieces[capturedCount++] = code;
+    key ^= CAPTURED_KEYS[code * CELLS + inventory[CAPTURED_COUNTS + code]];
+    inventory[CAPTURED_COUNTS + code]++;
+    material -= getMaterialValue(code);
+  }
+
+  private void removeLastCapturedPiece() {
+    int code = capturedPieces[--capturedCount];
+    inventory[CAPTURED_COUNTS + code]--;
+    key ^= CAPTURED_KEYS[code * CELLS + inventory[CAPTURED_COUNTS + code]];
+    material += getMaterialValue(code);
+  }
+
+  /**
+   * Put the piece code in the cell and update all the masks, the inventory
+   * and the key. A face down piece turned up as a code (or turned back down)
+   * is moved between the face down and the face up counts of the code.
+   */
+  private void setCell(int cell, int code) {
+    int bit = 1 << cell;
+    int oldCode = cells[cell];
+    if (oldCode == FACE_DOWN) {
+      faceDownMask &= ~bit;
+      if (code < PIECE_CODES) {
+        inventory[FACE_DOWN_COUNTS + code]--;
+      }
+    } else if (oldCode == EMPTY) {
+      emptyMask &= ~bit;
+    } else {
+      pieceMasks[oldCode] &= ~bit;
+      colorMasks[colorOf(oldCode)] &= ~bit;
+      inventory[FACE_UP_COUNTS + oldCode]--;
+    }
+
+    cells[cell] = code;
+    key ^= CELL_KEYS[cell * 16 + oldCode] ^ CELL_KEYS[cell * 16 + code];
+    if (code == FACE_DOWN) {
+      faceDownMask |= bit;
+      if (oldCode < PIECE_CODES) {
+        inventory[FACE_DOWN_COUNTS + oldCode]++;
+      }
+    } else if (code == EMPTY) {
+      emptyMask |= bit;
+    } else {
+      pieceMasks[code] |= bit;
+      colorMasks[colorOf(code)] |= bit;
+      inventory[FACE_UP_COUNTS + code]++;
+    }
+  }
+
+  public Color getTurn() {
+    return turn;
+  }
+
+  public void setNextTurn() {
+    this.turn = this.turn.getOppositeColor();
+    key ^= BLACK_TURN_KEY;
+  }
+
+  /**
+   * Returns the Zobrist key of the board: the pieces of all cells (face down
+   * or face up with kind and color), the captured pieces and the turn.
+   */
+  public long getKey() {
+    return key;
+  }
+
+  public ImmutableList<String> getPlayerIds() {
+    return playerIds;
+  }
+
+  /** Returns the piece code of the cell. */
+  public int getCell(int cell) {
+    return cells[cell];
+  }
+
+  /** Returns the mask of all face up pieces of the piece code. */
+  public int getPieceMask(int code) {
+    return pieceMasks[code];
+  }
+
+  /** Returns the mask of all face up pieces of the color (0 is red, 1 is black). */
+  public int getColorMask(int color) {
+    return colorMasks[color];
+  }
+
+  public int getFaceDownMask() {
+    return faceDownMask;
+  }
+
+  public int getEmptyMask() {
+    return emptyMask;
+  }
+
+  /** Returns the mask of all cells containing a face up or face down piece. */
+  public int getOccupiedMask() {
+    return ~emptyMask;
+  }
+
+  public int getCapturedCount() {
+    return capturedCount;
+  }
+
+  /** Returns the piece code of the i-th captured piece. */
+  public int getCapturedPiece(int i) {
+    return capturedPieces[i];
+  }
+
+  /** Returns the number of captured pieces of the piece code. */
+  public int getCapturedCount(int code) {
+    return inventory[CAPTURED_COUNTS + code];
+  }
+
+  /** Returns the number of face up pieces of the piece code. */
+  public int getFaceUpCount(int code) {
+    return inventory[FACE_UP_COUNTS + code];
+  }
+
+  /** Returns the number of face down pieces which are of the piece code. */
+  public int getFaceDownCount(int code) {
+    return inventory[FACE_DOWN_COUNTS + code];
+  }
+
+  /**
+   * Returns the material of the board: the values of the black pieces in the
+   * game less the values of the red ones.
+   */
+  public int getMaterial() {
+    return material;
+  }
+
+  /** Returns the value of the piece code, negative for the red. */
+  private static int getMaterialValue(int code) {
+    int value = VALUES_PER_KIND[kindOf(code)];
+    return colorOf(code) == 0 ? -value : value;
+  }
+
+  /** Returns the number of pieces of the kind ordinal one color has at the beginning. */
+  public static int getInitialCount(int kind) {
+    return PIECES_PER_KIND[kind];
+  }
+
+  /** Returns the basic value of the kind ordinal, the same for both colors. */
+  public static int getKindValue(int kind) {
+    return VALUES_PER_KIND[kind];
+  }
+
+  /** Returns the piece code of a face up piece. */
+  public static int code(Piece.Kind kind, Piece.PieceColor color) {
+    return color.ordinal() * KINDS + kind.ordinal();
+  }
+
+  /** Returns the color (0 is red, 1 is black) of a face up piece code. */
+  public static int colorOf(int code) {
+    return code / KINDS;
+  }
+
+  /** Returns the kind ordinal of a face up piece code. */
+  public static int kindOf(int code) {
+    return code % KINDS;
+  }
+
+  /** Returns the color (0 is red, 1 is black) of the turn. */
+  public static int colorOf(Color turn) {
+    return turn.isBlack() ? 1 : 0;
+  }
+
+  /** Convert a cell of {@link BanqiState} to a piece code. */
+  public static int toCode(Optional<Piece> cell) {
+    if (!cell.isPresent()) {
+      return FACE_DOWN;
+    }
+    Piece piece = cell.get();
+    if (piece.getKind() == Piece.Kind.EMPTY) {
+      return EMPTY;
+    }
+    return code(piece.getKind(), piece.getPieceColor());
+  }
+
+  /** Convert a piece code to a cell of {@link BanqiState}. */
+  public static Optional<Piece> toCell(int code) {
+    if (code == FACE_DOWN) {
+      return Optional.absent();
+    } else if (code == EMPTY) {
+      return Optional.of(Piece.of(Piece.Kind.EMPTY, Piece.PieceColor.EMPTY));
+    }
+    return Optional.of(Piece.of(KIND_VALUES[kindOf(code)], COLOR_VALUES[colorOf(code)]));
+  }
+}
@@ -0,0 +1,120 @@
+package org.banqi.client;
+
+import java.util.Arrays;
+
+/**
+ * Tables computed once for the move generation, indexed by the cells
+ * (0-31, row by row) and the ordinals of {@link Piece.Kind}:
+ * <ul>
+ * <li>the cells next to each cell,</li>
+ * <li>the rays of each cell, i.e. the cells in each direction nearest
+ * first, along which a cannon looks for its screen and its target,</li>
+ * <li>which kind can capture which kind, the rules of
+ * {@link BanqiLogic#canCapture}.</li>
+ * </ul>
+ * The cells a cannon can jump to are computed from the occupied cells of its
+ * row and column with a few bit operations, see {@link #getCannonTargets}.
+ * The tables are shared, the arrays returned must not be modified.
+ */
+public final class BoardTables {
+  private static final int ROWS = 4;
+  private static final int COLS = 8;
+  private static final int KINDS = Piece.Kind.values().length;
+  // The cells of the first row and of the first column
+  private static final int ROW_MASK = 0xFF;
+  private static final int COLUMN_MASK = 0x01010101;
+  // Up, down, left, right
+  private static final int[][] DIRECTIONS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+
+  private static final int[][] NEIGHBORS = new int[ROWS * COLS][];
+  private static final int[][][] RAYS = new int[ROWS * COLS][DIRECTIONS.length][];
+  private static final boolean[][] CAN_CAPTURE = new boolean[KINDS][KINDS];
+
+  static {
+    for (int cell = 0; cell < ROWS * COLS; cell++) {
+      int[] neighbors = new int[DIRECTIONS.length];
+      int neighborCount = 0;
+      for (int d = 0; d < DIRECTIONS.length; d++) {
+        int length = 0;
+        int[] ray = new int[COLS];
+        int row = cell / COLS + DIRECTIONS[d][0];
+        int col = cell % COLS + DIRECTIONS[d][1];
+        while (row >= 0 && row < ROWS && col >= 0 && col < COLS) {
+          ray[length++] = row * COLS + col;
+          row += DIRECTIONS[d][0];
+          col += DIRECTIONS[d][1];
+        }
+        RAYS[cell][d] = Arrays.copyOf(ray, length);
+        if (length > 0) {
+          neighbors[neighborCount++] = ray[0];
+        }
+      }
+      NEIGHBORS[cell] = Arrays.copyOf(neighbors, neighborCount);
+    }
+
+    int general = Piece.Kind.GENERAL.ordinal();
+    int cannon = Piece.Kind.CANNON.ordinal();
+    int soldier = Piece.Kind.SOLDIER.ordinal();
+    int empty = Piece.Kind.EMPTY.ordinal();
+    for (int kind = 0; kind < empty; kind++) {
+      for (int targetKind = 0; targetKind < empty; targetKind++) {
+        // A piece captures the pieces of its rank and below, except that a
+        // soldier captures a general and a general does not capture a
+        // soldier. A cannon captures any piece by jumping.
+        CAN_CAPTURE[kind][targetKind] = kind == cannon
+            || (kind == soldier && targetKind == general)
+            || (kind <= targetKind && !(kind == general && targetKind == soldier));
+      }
+    }
+  }
+
+  private BoardTables() {
+  }
+
+  /** Returns the cells next to the cell. */
+  public static int[] getNeighbors(int cell) {
+    return NEIGHBORS[cell];
+  }
+
+  /**
+   * Returns the rays of the cell: for each of the four directions, the cells
+   * from the cell to the edge of the board, nearest first.
+   */
+  public static int[][] getRays(int cell) {
+    return RAYS[cell];
+  }
+
+  /**
+   * Whether a piece of the kind can capture a piece of the target kind (the
+   * ordinals of {@link Piece.Kind}). A cannon only captures by jumping over
+   * a screen, any other piece only an adjacent piece.
+   */
+  public static boolean canCapture(int kind, int targetKind) {
+    return CAN_CAPTURE[kind][targetKind];
+  }
+
+  /**
+   * Returns the mask of the cells a cannon in the cell can jump to, whatever
+   * the pieces there: in each direction, the first occupied cell is the
+   * screen and the next occupied cell is the target. A face down piece is
+   * occupied too.
+   *
+   * @param cell The cell of the cannon.
+   * @param occupiedMask The occupied cells, bit i for cell i.
+   */
+  public static int getCannonTargets(int cell, int occupiedMask) {
+    return getLineTargets(cell, occupiedMask & (ROW_MASK << (cell & ~(COLS - 1))))
+        | getLineTargets(cell, occupiedMask & (COLUMN_MASK << (cell & (COLS - 1))));
+  }
+
+  /** Returns the targets of the cannon in the cell among the occupied cells of a line. */
+  private static int getLineTargets(int cell, int lineMask) {
+    // Right or down: the lowest cell after the cannon is the screen
+    int after = lineMask & ~((2 << cell) - 1);
+    after &= after - 1;
+    // Left or up: the highest cell before the cannon is the screen
+    int before = lineMask & ((1 << cell) - 1);
+    before ^= Integer.highestOneBit(before);
+    return (after & -after) | Integer.highestOneBit(before);
+  }
+}
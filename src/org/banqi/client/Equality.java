@@ -33,6 +33,9 @@ public abstract class Equality {
 
   @Override
   public final boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
     if (!(other instanceof Equality)) {
       return false;
     }
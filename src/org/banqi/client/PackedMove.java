@@ -0,0 +1,104 @@
+package org.banqi.client;
+
+/**
+ * A move packed in an int: from cell | to cell << 5 | type << 10, the cells
+ * being 0-31 row by row and the type the ordinal of {@link Move.Type}. A
+ * turn move goes from its cell to the same cell.
+ * <br>
+ * The search generates the packed moves into int arrays it owns (see
+ * {@link StateExplorerImpl#getPossibleMoves(BitBoard, int[])}), so it does
+ * not allocate a {@link Move} and its {@link Position}s for every move.
+ * {@link #toMove} and {@link #fromMove} convert from and to {@link Move}.
+ */
+public final class PackedMove {
+  /** An int which is no move. */
+  public static final int NONE = -1;
+  /**
+   * The most moves a board can have: 4 per cell (to the cells next to it or
+   * a turn), and 4 more for each of the 2 cannons of the player.
+   */
+  public static final int MAX_MOVES = BitBoard.CELLS * 4 + 2 * 4;
+
+  private static final Move.Type[] TYPES = Move.Type.values();
+  private static final int CAPTURE = Move.Type.CAPTURE.ordinal();
+  private static final int TURN = Move.Type.TURN.ordinal();
+  private static final int MOVE = Move.Type.MOVE.ordinal();
+
+  private PackedMove() {
+  }
+
+  /** Returns the move of the piece from the cell to the cell (not a turn). */
+  public static int move(int from, int to) {
+    return from | to << 5 | MOVE << 10;
+  }
+
+  /** Returns the capture of the piece in the cell to by the piece in from. */
+  public static int capture(int from, int to) {
+    return from | to << 5 | CAPTURE << 10;
+  }
+
+  /** Returns the turn of the face down piece in the cell. */
+  public static int turn(int cell) {
+    return cell | cell << 5 | TURN << 10;
+  }
+
+  public static int getFrom(int move) {
+    return move & 0x1F;
+  }
+
+  public static int getTo(int move) {
+    return (move >>> 5) & 0x1F;
+  }
+
+  public static Move.Type getType(int move) {
+    return TYPES[move >>> 10];
+  }
+
+  public static boolean isCapture(int move) {
+    return move >>> 10 == CAPTURE;
+  }
+
+  public static boolean isTurn(int move) {
+    return move >>> 10 == TURN;
+  }
+
+  /**
+   * Sort the first count moves by their scores, highest first. It is an
+   * insertion sort, so the moves with the same score keep their order.
+   */
+  public static void sortByScore(int[] moves, int[] scores, int count) {
+    for (int i = 1; i < count; i++) {
+      int move = moves[i];
+      int score = scores[i];
+      int j = i;
+      while (j > 0 && scores[j - 1] < score) {
+        moves[j] = moves[j - 1];
+        scores[j] = scores[j - 1];
+        j--;
+      }
+      moves[j] = move;
+      scores[j] = score;
+    }
+  }
+
+  /** Returns the {@link Move} of the packed move. */
+  public static Move toMove(int move) {
+    return new Move(toPosition(getFrom(move)), toPosition(getTo(move)), getType(move));
+  }
+
+  /** Returns the packed move of the {@link Move}. */
+  public static int fromMove(Move move) {
+    return toCell(move.getFrom()) | toCell(move.getTo()) << 5
+        | move.getType().ordinal() << 10;
+  }
+
+  // Convert the gameApi coodinate(0-31) to row(1-4)/col(1-8) coordinate
+  private static Position toPosition(int cell) {
+    return Position.of(cell / 8 + 1, cell % 8 + 1);
+  }
+
+  // Convert the row(1-4)/col(1-8) coordinate to gameApi coodinate(0-31)
+  private static int toCell(Position position) {
+    return (position.getRow() - 1) * 8 + position.getCol() - 1;
+  }
+}
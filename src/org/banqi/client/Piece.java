@@ -1,7 +1,11 @@
 package org.banqi.client;
 
-import java.util.Arrays;
-
+/**
+ * A piece of the board, or the empty piece of an empty cell. The 15 pieces
+ * of the game (7 kinds of the 2 colors and the empty piece) are shared
+ * instances returned by {@link #of}, so converting a state creates no piece
+ * and equal pieces from {@link #of} are the same object.
+ */
 public class Piece extends Equality {
   /**
    * There're totally 8 kinds which 7 of them are normal kinds of pieces and 1 kind:
@@ -59,11 +63,28 @@ public class Piece extends Equality {
     }
   }
   
-  private Kind kindValue;
-  private PieceColor pieceColorValue;
+  private static final int KINDS_PER_COLOR = 7;
+  // The shared pieces, the pieces of the colors by color * 7 + kind and then
+  // the empty piece
+  private static final Piece[] PIECES = new Piece[2 * KINDS_PER_COLOR + 1];
+  private static final int EMPTY_INDEX = 2 * KINDS_PER_COLOR;
+  static {
+    for (PieceColor pieceColor : new PieceColor[] {PieceColor.RED, PieceColor.BLACK}) {
+      for (int kind = 0; kind < KINDS_PER_COLOR; kind++) {
+        PIECES[pieceColor.ordinal() * KINDS_PER_COLOR + kind] =
+            new Piece(Kind.VALUES[kind], pieceColor);
+      }
+    }
+    PIECES[EMPTY_INDEX] = new Piece(Kind.EMPTY, PieceColor.EMPTY);
+  }
+
+  private final Kind kindValue;
+  private final PieceColor pieceColorValue;
+  // The color and the kind in an int below 128, so its Integer is cached
+  private final int id;
   
   /**
-   * Creates a piece.
+   * Creates a piece, prefer the shared pieces of {@link #of}.
    *
    * @param kind the kind value of this piece.
    * @param pieceColor the color value of this piece.
@@ -71,6 +92,9 @@ public class Piece extends Equality {
   public Piece(Kind kind, PieceColor pieceColor) {
     kindValue = kind;
     pieceColorValue = pieceColor;
+    id = (pieceColor == null ? PieceColor.VALUES.length : pieceColor.ordinal())
+        * (Kind.VALUES.length + 1)
+        + (kind == null ? Kind.VALUES.length : kind.ordinal());
   }
   
   /**
@@ -79,8 +103,24 @@ public class Piece extends Equality {
    * @param kind the kind value of this piece.
    */
   public Piece(Kind kind) {
-    kindValue = kind;
-    pieceColorValue = PieceColor.EMPTY;
+    this(kind, PieceColor.EMPTY);
+  }
+
+  /**
+   * Returns the shared piece of the kind and color, the empty piece for the
+   * empty kind and color, or a new piece for any other combination.
+   *
+   * @param kind the kind value of the piece.
+   * @param pieceColor the color value of the piece.
+   */
+  public static Piece of(Kind kind, PieceColor pieceColor) {
+    if (kind == Kind.EMPTY && pieceColor == PieceColor.EMPTY) {
+      return PIECES[EMPTY_INDEX];
+    } else if (kind == null || kind == Kind.EMPTY
+        || pieceColor == null || pieceColor == PieceColor.EMPTY) {
+      return new Piece(kind, pieceColor);
+    }
+    return PIECES[pieceColor.ordinal() * KINDS_PER_COLOR + kind.ordinal()];
   }
 
   /**
@@ -122,6 +162,6 @@ public class Piece extends Equality {
 
   @Override
   public Object getId() {
-    return Arrays.asList(getPieceColor(), getKind());
+    return id;
   }
 }
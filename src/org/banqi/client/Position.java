@@ -5,17 +5,42 @@ package org.banqi.client;
  * source/browse/trunk/eclipse/src/org/shared/chess/Position.java
  */
 
-import com.google.common.base.Objects;
-
+/**
+ * A position of the board, row 1-4 and column 1-8. The 32 positions of the
+ * board are shared instances returned by {@link #of}, so the moves and the
+ * states create no position.
+ */
 public class Position {
-  private int row;
-  private int col;
+  private static final int ROWS = 4;
+  private static final int COLS = 8;
+  // The shared positions by (row - 1) * 8 + col - 1
+  private static final Position[] POSITIONS = new Position[ROWS * COLS];
+  static {
+    for (int i = 0; i < POSITIONS.length; i++) {
+      POSITIONS[i] = new Position(i / COLS + 1, i % COLS + 1);
+    }
+  }
 
+  private final int row;
+  private final int col;
+
+  /** Creates a position, prefer the shared positions of {@link #of}. */
   public Position(int row, int col) {
     this.row = row;
     this.col = col;
   }
 
+  /**
+   * Returns the shared position of the row and column of the board, or a
+   * new position if it is off the board.
+   */
+  public static Position of(int row, int col) {
+    if (row < 1 || row > ROWS || col < 1 || col > COLS) {
+      return new Position(row, col);
+    }
+    return POSITIONS[(row - 1) * COLS + col - 1];
+  }
+
   public int getRow() {
     return row;
   }
@@ -31,7 +56,8 @@ public class Position {
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(col, row);
+    // Objects.hashCode(col, row) without its varargs array
+    return 31 * (31 + col) + row;
   }
 
   @Override
@@ -5,230 +5,212 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import com.google.common.base.Optional;
-
 public class StateExplorerImpl implements StateExplorer {
-  BanqiLogic banqiLogic = new BanqiLogic();
+  private static final int CANNON = Piece.Kind.CANNON.ordinal();
+  // The types of the moves to generate, 1 << the ordinal of each type
+  private static final int CAPTURES = 1 << Move.Type.CAPTURE.ordinal();
+  private static final int TURNS = 1 << Move.Type.TURN.ordinal();
+  private static final int MOVES = 1 << Move.Type.MOVE.ordinal();
+  private static final int ALL_TYPES = CAPTURES | TURNS | MOVES;
 
   @Override
   public Set<Move> getPossibleMoves(BanqiState state) {
-    Set<Move> possibleMoves = new HashSet<Move>();
-    Set<Position> possibleStartMoves = new HashSet<Position>();
-
-    possibleStartMoves = getPossibleStartPositions(state);
-    for (Position startPostion : possibleStartMoves) {
-      Set<Move> possibleMovesOfP = getPossibleMovesFromPosition(state,
-          startPostion);
-      for (Move move : possibleMovesOfP) {
-        possibleMoves.add(move);
-      }
-    }
-    return possibleMoves;
+    int[] moves = new int[PackedMove.MAX_MOVES];
+    return toMoves(moves, getPossibleMoves(state, moves));
   }
 
+  /**
+   * Returns the moves of {@link #getPossibleMoves(BanqiState)} which begin at
+   * start, so only a face down piece or a piece of the player to move has some.
+   */
   @Override
   public Set<Move> getPossibleMovesFromPosition(BanqiState state, Position start) {
-    Set<Move> moves = new HashSet<Move>();
-    Set<Position> possibleMoveFromPosition = new HashSet<Position>();
-    List<Optional<Piece>> cells = state.getCells();
-    int startRow = start.getRow();
-    int startCol = start.getCol();
-    int endRow = 0;
-    int endCol = 0;
-    // If the piece is facing down, then there's only one move for that piece.
-    if (!cells.get(convertToIndex(startRow, startCol)).isPresent()) {
-      Move move = new Move(new Position(startRow, startCol));
-      moves.add(move);
-      return moves;
+    int from = convertToIndex(start.getRow(), start.getCol());
+    int[] moves = new int[PackedMove.MAX_MOVES];
+    int count = getPossibleMoves(state, moves);
+    Set<Move> movesFromPosition = new HashSet<Move>();
+    for (int i = 0; i < count; i++) {
+      if (PackedMove.getFrom(moves[i]) == from) {
+        movesFromPosition.add(PackedMove.toMove(moves[i]));
+      }
     }
+    return movesFromPosition;
+  }
 
-    Piece piece = cells.get(convertToIndex(startRow, startCol)).get();
-    /*
-     * Get all possible end position for the piece can verify each of them. If
-     * the piece is a cannon, then its possible end position is any square of
-     * the same row or same column, otherwise is any square next to its position
-     */
-    if (piece.getKind() == Piece.Kind.CANNON) {
-      for (int i = 1; i <= 4; i++) {
-        if (i != startRow) {
-          endRow = i;
-          endCol = startCol;
-          Position endPos = new Position(endRow, endCol);
-
-          // If the piece is not facing down
-          if (cells.get(convertToIndex(endRow, endCol)).isPresent()) {
-            // If the piece is in the cell and facing up
-            if (cells.get(convertToIndex(endRow, endCol)).get().getKind() != Piece.Kind.EMPTY) {
-              if (!cells.get(convertToIndex(endRow, endCol)).get()
-                  .getPieceColor().name().equals(piece.getPieceColor().name())
-                  && banqiLogic.canCapture(cells,
-                      (convertToIndex(startRow, startCol)),
-                      (convertToIndex(endRow, endCol)))) {
-                possibleMoveFromPosition.add(endPos);
-              }
-            }
-          }
-        }
-      }
-      for (int j = 1; j <= 8; j++) {
-        if (j != startCol) {
-          endRow = startRow;
-          endCol = j;
-          Position endPos = new Position(endRow, endCol);
-
-          // If the piece is not facing down
-          if (cells.get(convertToIndex(endRow, endCol)).isPresent()) {
-            // If the piece is in the cell and facing up
-            if (cells.get(convertToIndex(endRow, endCol)).get().getKind() != Piece.Kind.EMPTY) {
-              if (!cells.get(convertToIndex(endRow, endCol)).get()
-                  .getPieceColor().name().equals(piece.getPieceColor().name())
-                  && banqiLogic.canCapture(cells,
-                      (convertToIndex(startRow, startCol)),
-                      (convertToIndex(endRow, endCol)))) {
-                possibleMoveFromPosition.add(endPos);
-              }
-            }
-          }
-        }
-      }
+  @Override
+  public Set<Position> getPossibleStartPositions(BanqiState state) {
+    int[] moves = new int[PackedMove.MAX_MOVES];
+    int count = getPossibleMoves(state, moves);
+    Set<Position> startPositions = new HashSet<Position>();
+    for (int i = 0; i < count; i++) {
+      startPositions.add(convertToCoord(PackedMove.getFrom(moves[i])));
     }
-    endRow = 0;
-    endCol = 0;
-    if (startRow != 1) {
-      endRow = startRow - 1;
-      endCol = startCol;
-      Position up = new Position(endRow, endCol);
-
-      // If the piece is not facing down
-      if (cells.get(convertToIndex(endRow, endCol)).isPresent()) {
-        // If the piece is in the cell and facing up
-        if (cells.get(convertToIndex(endRow, endCol)).get().getKind() != Piece.Kind.EMPTY) {
-          if (!cells.get(convertToIndex(endRow, endCol)).get().getPieceColor()
-              .name().equals(piece.getPieceColor().name())
-              && banqiLogic.canCapture(cells,
-                  (convertToIndex(startRow, startCol)),
-                  (convertToIndex(endRow, endCol)))) {
-            possibleMoveFromPosition.add(up);
-          }
-        } else {
-          possibleMoveFromPosition.add(up);
-        }
-      }
+    return startPositions;
+  }
+
+  /**
+   * Writes the possible moves of the state, packed, into the array like
+   * {@link #getPossibleMoves(BitBoard, int[])} and returns their number.
+   * The start cells, the targets and the types of all the moves come out of
+   * one pass over the board, so the callers which need several of them
+   * (e.g. the start positions and the targets of a selected piece) share it.
+   */
+  public int getPossibleMoves(BanqiState state, int[] moves) {
+    return getPossibleMoves(BitBoard.fromState(state), moves);
+  }
+
+  /**
+   * Returns all the possible moves from the given bit board. The moves are the
+   * same as {@link #getPossibleMoves(BanqiState)} returns for the equivalent state.
+   */
+  public Set<Move> getPossibleMoves(BitBoard board) {
+    int[] moves = new int[PackedMove.MAX_MOVES];
+    return toMoves(moves, getPossibleMoves(board, moves));
+  }
+
+  /**
+   * Returns the possible captures (including the cannon jumps) from the given
+   * bit board, i.e. the moves of {@link #getPossibleMoves(BitBoard)} of type
+   * {@link Move.Type#CAPTURE}.
+   */
+  public Set<Move> getPossibleCaptures(BitBoard board) {
+    int[] moves = new int[PackedMove.MAX_MOVES];
+    return toMoves(moves, getPossibleCaptures(board, moves));
+  }
+
+  /**
+   * Writes the possible moves of the bit board, packed (see
+   * {@link PackedMove}), into the array from its start and returns their
+   * number. The array must hold {@link PackedMove#MAX_MOVES} moves.
+   */
+  public int getPossibleMoves(BitBoard board, int[] moves) {
+    return getPossibleMoves(board, moves, ALL_TYPES);
+  }
+
+  /**
+   * Writes the possible captures of the bit board, packed, into the array
+   * like {@link #getPossibleMoves(BitBoard, int[])} and returns their number.
+   */
+  public int getPossibleCaptures(BitBoard board, int[] moves) {
+    return getPossibleMoves(board, moves, CAPTURES);
+  }
+
+  /**
+   * Writes the possible moves of type {@link Move.Type#MOVE} of the bit
+   * board (no capture and no turn), packed, into the array and returns their
+   * number.
+   */
+  public int getPossibleQuietMoves(BitBoard board, int[] moves) {
+    return getPossibleMoves(board, moves, MOVES);
+  }
+
+  /**
+   * Writes the possible turns of the bit board, one per face down piece,
+   * packed, into the array and returns their number.
+   */
+  public int getPossibleTurns(BitBoard board, int[] moves) {
+    return getPossibleMoves(board, moves, TURNS);
+  }
+
+  /**
+   * Whether the packed move is one of the possible moves of the bit board,
+   * e.g. a move of the transposition table, without generating the moves.
+   */
+  public boolean isPossibleMove(BitBoard board, int move) {
+    int from = PackedMove.getFrom(move);
+    int to = PackedMove.getTo(move);
+    if (PackedMove.isTurn(move)) {
+      return from == to && (board.getFaceDownMask() & (1 << from)) != 0;
     }
-    if (startRow != 4) {
-      endRow = startRow + 1;
-      endCol = startCol;
-      Position down = new Position(endRow, endCol);
-
-      // If the piece is not facing down
-      if (cells.get(convertToIndex(endRow, endCol)).isPresent()) {
-        // If the piece is in the cell and facing up
-        if (cells.get(convertToIndex(endRow, endCol)).get().getKind() != Piece.Kind.EMPTY) {
-          if (!cells.get(convertToIndex(endRow, endCol)).get().getPieceColor()
-              .name().equals(piece.getPieceColor().name())
-              && banqiLogic.canCapture(cells,
-                  (convertToIndex(startRow, startCol)),
-                  (convertToIndex(endRow, endCol)))) {
-            possibleMoveFromPosition.add(down);
-          }
-        } else {
-          possibleMoveFromPosition.add(down);
-        }
-      }
+    int color = BitBoard.colorOf(board.getTurn());
+    if ((board.getColorMask(color) & (1 << from)) == 0) {
+      return false;
     }
-    if (startCol != 1) {
-      endRow = startRow;
-      endCol = startCol - 1;
-      Position left = new Position(endRow, endCol);
-
-      // If the piece is not facing down
-      if (cells.get(convertToIndex(endRow, endCol)).isPresent()) {
-        // If the piece is in the cell and facing up
-        if (cells.get(convertToIndex(endRow, endCol)).get().getKind() != Piece.Kind.EMPTY) {
-          if (!cells.get(convertToIndex(endRow, endCol)).get().getPieceColor()
-              .name().equals(piece.getPieceColor().name())
-              && banqiLogic.canCapture(cells,
-                  (convertToIndex(startRow, startCol)),
-                  (convertToIndex(endRow, endCol)))) {
-            possibleMoveFromPosition.add(left);
-          }
-        } else {
-          possibleMoveFromPosition.add(left);
-        }
+    int kind = BitBoard.kindOf(board.getCell(from));
+    if (PackedMove.isCapture(move)) {
+      if ((board.getColorMask(1 - color) & (1 << to)) == 0) {
+        return false;
+      } else if (kind == CANNON) {
+        return (BoardTables.getCannonTargets(from, board.getOccupiedMask()) & (1 << to)) != 0;
       }
+      return isNeighbor(from, to)
+          && BoardTables.canCapture(kind, BitBoard.kindOf(board.getCell(to)));
     }
-    if (startCol != 8) {
-      endRow = startRow;
-      endCol = startCol + 1;
-      Position right = new Position(endRow, endCol);
-
-      // If the piece is not facing down
-      if (cells.get(convertToIndex(endRow, endCol)).isPresent()) {
-        // If the piece is in the cell and facing up
-        if (cells.get(convertToIndex(endRow, endCol)).get().getKind() != Piece.Kind.EMPTY) {
-          if (!cells.get(convertToIndex(endRow, endCol)).get().getPieceColor()
-              .name().equals(piece.getPieceColor().name())
-              && banqiLogic.canCapture(cells,
-                  (convertToIndex(startRow, startCol)),
-                  (convertToIndex(endRow, endCol)))) {
-            possibleMoveFromPosition.add(right);
-          }
-        } else {
-          possibleMoveFromPosition.add(right);
-        }
+    return isNeighbor(from, to) && (board.getEmptyMask() & (1 << to)) != 0;
+  }
+
+  private boolean isNeighbor(int from, int to) {
+    for (int neighbor : BoardTables.getNeighbors(from)) {
+      if (neighbor == to) {
+        return true;
       }
     }
-    for (Position pos : possibleMoveFromPosition) {
-      Move move = null;
-      Optional<Piece> targetPiece = state.getCells().get(
-          convertToIndex(pos.getRow(), pos.getCol()));
-      if (targetPiece.isPresent()
-          && targetPiece.get().getKind() != Piece.Kind.EMPTY) {
-        move = new Move(new Position(startRow, startCol), new Position(
-            pos.getRow(), pos.getCol()), Move.Type.CAPTURE);
-      } else if (targetPiece.isPresent()
-          && targetPiece.get().getKind() == Piece.Kind.EMPTY) {
-        move = new Move(new Position(startRow, startCol), new Position(
-            pos.getRow(), pos.getCol()), Move.Type.MOVE);
-      }
-      moves.add(move);
+    return false;
+  }
+
+  private Set<Move> toMoves(int[] moves, int count) {
+    Set<Move> possibleMoves = new HashSet<Move>();
+    for (int i = 0; i < count; i++) {
+      possibleMoves.add(PackedMove.toMove(moves[i]));
     }
-    return moves;
+    return possibleMoves;
   }
 
-  @Override
-  public Set<Position> getPossibleStartPositions(BanqiState state) {
-    Set<Position> startPositions = new HashSet<Position>();
-    List<Optional<Piece>> cells = state.getCells();
-    Color turnOfColor = state.getTurn();
-    // Check all pieces on the board
-    for (int i = 0; i < 32; i++) {
-      int row = (i / 8) + 1;
-      int col = (i % 8) + 1;
-      Position currentPos = new Position(row, col);
-      Optional<Piece> cell = cells.get(i);
-
-      if (cell.isPresent() && cell.get().getKind() != Piece.Kind.EMPTY) {
-        Piece piece = cell.get();
-        if (piece.getPieceColor().name().substring(0, 1)
-            .equals(turnOfColor.toString())) {
-          if (!getPossibleMovesFromPosition(state, currentPos).isEmpty()) {
-            startPositions.add(currentPos);
+  /** Writes the possible moves of the types (a mask of the ordinals) of the board. */
+  private int getPossibleMoves(BitBoard board, int[] moves, int types) {
+    int count = 0;
+    int color = BitBoard.colorOf(board.getTurn());
+    int faceDownMask = board.getFaceDownMask();
+    int emptyMask = board.getEmptyMask();
+    int enemyMask = board.getColorMask(1 - color);
+
+    // Every face down piece can be turned up
+    for (int mask = (types & TURNS) != 0 ? faceDownMask : 0; mask != 0; mask &= mask - 1) {
+      moves[count++] = PackedMove.turn(Integer.numberOfTrailingZeros(mask));
+    }
+
+    // Every face up piece of the turn's color can move or capture
+    int pieceMask = (types & (MOVES | CAPTURES)) != 0 ? board.getColorMask(color) : 0;
+    for (int mask = pieceMask; mask != 0; mask &= mask - 1) {
+      int from = Integer.numberOfTrailingZeros(mask);
+      int kind = BitBoard.kindOf(board.getCell(from));
+      for (int to : BoardTables.getNeighbors(from)) {
+        int bit = 1 << to;
+        if ((emptyMask & bit) != 0) {
+          if ((types & MOVES) != 0) {
+            moves[count++] = PackedMove.move(from, to);
           }
+        } else if ((types & CAPTURES) != 0 && (enemyMask & bit) != 0 && kind != CANNON
+            && BoardTables.canCapture(kind, BitBoard.kindOf(board.getCell(to)))) {
+          moves[count++] = PackedMove.capture(from, to);
         }
-      } else if (!cell.isPresent()) {
-        startPositions.add(currentPos);
+      }
+      if (kind == CANNON && (types & CAPTURES) != 0) {
+        count = addCannonCaptures(board, from, enemyMask, moves, count);
       }
     }
+    return count;
+  }
 
-    return startPositions;
+  /**
+   * Add the captures of the cannon in from after the count moves and return
+   * the new count: the targets of the cannon (see
+   * {@link BoardTables#getCannonTargets}) which are enemy pieces.
+   */
+  private int addCannonCaptures(BitBoard board, int from, int enemyMask,
+      int[] moves, int count) {
+    int targetMask = BoardTables.getCannonTargets(from, board.getOccupiedMask()) & enemyMask;
+    for (int mask = targetMask; mask != 0; mask &= mask - 1) {
+      moves[count++] = PackedMove.capture(from, Integer.numberOfTrailingZeros(mask));
+    }
+    return count;
   }
 
   // Convert the gameApi coodinate(0-31) to row(1-4)/col(1-8) coordinate
   public Position convertToCoord(int cellIndex) {
     int row = cellIndex / 8 + 1;
     int col = cellIndex % 8 + 1;
-    return new Position(row, col);
+    return Position.of(row, col);
   }
 
   // Convert the row(1-4)/col(1-8) coordinate to gameApi coodinate(0-31)
@@ -40,6 +40,6 @@ public class BanqiDragController extends PickupDragController {
   public Position getPosition(Image image) {
     int row = (image.getAbsoluteTop() / 100) + 1;
     int col = (image.getAbsoluteLeft() / 100) + 1;
-    return new Position(row, col);
+    return Position.of(row, col);
   }
 }
\ No newline at end of file
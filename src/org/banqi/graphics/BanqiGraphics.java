@@ -7,6 +7,7 @@ import java.util.Set;
 //import org.banqi.client.BanqiState;
 //import org.banqi.client.Color;
 import org.banqi.client.Move;
+import org.banqi.client.PackedMove;
 import org.banqi.client.Piece;
 import org.banqi.client.BanqiPresenter;
 import org.banqi.client.Position;
@@ -189,13 +190,16 @@ public class BanqiGraphics extends Composite implements BanqiPresenter.View {
     if (selectedCells.size() == 1) {
       // Get the selected piece's index
       int cellIndex = selectedCells.get(0);
-      // Get the selected piece's position
-      Position startPos = stateExplorer.convertToCoord(cellIndex);
-      // Get all possible target positions
-      Set<Move> possibleMovesFromPosition = stateExplorer
-          .getPossibleMovesFromPosition(presenter.getState(), startPos);
-      // Get all possible target indexs
-      possibleMovesTargetIndex = convertTargetMoveToIndex(possibleMovesFromPosition);
+      // Get all possible moves in one pass and keep the targets of the
+      // selected piece
+      int[] possibleMoves = new int[PackedMove.MAX_MOVES];
+      int possibleMoveCount = stateExplorer.getPossibleMoves(presenter.getState(),
+          possibleMoves);
+      for (int i = 0; i < possibleMoveCount; i++) {
+        if (PackedMove.getFrom(possibleMoves[i]) == cellIndex) {
+          possibleMovesTargetIndex.add(PackedMove.getTo(possibleMoves[i]));
+        }
+      }
     }
 
     // Create all banqiImages
@@ -366,7 +370,7 @@ public class BanqiGraphics extends Composite implements BanqiPresenter.View {
     String[] coords = image.getAltText().split(",");
     int row = Integer.parseInt(coords[0]);
     int col = Integer.parseInt(coords[1]);
-    return new Position(row, col);
+    return Position.of(row, col);
   }
 
   // /** Print debug info in the console. */
@@ -0,0 +1,184 @@
+package org.banqi.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.banqi.client.BanqiState;
+import org.banqi.client.BitBoard;
+import org.banqi.client.Color;
+import org.banqi.client.Move;
+import org.banqi.client.StateExplorerImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+
+@RunWith(JUnit4.class)
+public class AiSessionTest {
+
+  private static final int MAX_DEPTH = 20;
+  private static final int PONDER_MILLISECONDS = 20;
+  private static final int MAX_PONDER_SLICES = 1000;
+
+  // Red can only move its general from 24 to 16, after which black wins in a
+  // few moves
+  private final BanqiState opponentState =
+      Endgames.of(Color.R, "C24:rgen", "C25:bsol", "C26:bele");
+  private final BanqiState ponderedState =
+      Endgames.of(Color.B, "C16:rgen", "C25:bsol", "C26:bele");
+
+  // The moves of the position are even, so the move searched first stays the
+  // best one
+  private static final BanqiState QUIET_STATE = Endgames.of(Color.R,
+      "C0:rcha", "C5:rhor", "C10:rsol", "C20:bcha", "C27:bhor", "C30:bsol");
+  private static final int VARIATION_DEPTH = 4;
+
+  private final TranspositionTable transpositionTable = new TranspositionTable();
+  private final AiSession session = new AiSession(Endgames.PLAYER_IDS, transpositionTable);
+
+  /** A time manager which records the depths the search completes. */
+  private static class DepthRecorder extends TimeManager {
+    final List<Integer> depths = Lists.newArrayList();
+    final List<Move> bestMoves = Lists.newArrayList();
+
+    DepthRecorder(BanqiState state) {
+      this(state, Ticker.systemTicker());
+    }
+
+    DepthRecorder(BanqiState state, Ticker ticker) {
+      super(0, BitBoard.fromState(state), ticker);
+    }
+
+    @Override
+    public void onIterationCompleted(int depth, Move bestMove, int bestScore,
+        int secondBestScore) {
+      depths.add(depth);
+      bestMoves.add(bestMove);
+      super.onIterationCompleted(depth, bestMove, bestScore, secondBestScore);
+    }
+  }
+
+  // The first depth whose best move wins, and that move
+  private int winDepth = -1;
+  private Move winningMove;
+
+  @Before
+  public void setUp() {
+    AlphaBetaPruning ai = new AlphaBetaPruning(new Heuristic(), ponderedState);
+    ai.setIterationListener(new IterationListener() {
+      @Override
+      public void onIterationCompleted(int depth, Move bestMove, int bestScore,
+          int secondBestScore) {
+        if (winDepth < 0 && AlphaBetaPruning.isWinScore(bestScore)) {
+          winDepth = depth;
+          winningMove = bestMove;
+        }
+      }
+    });
+    ai.findBestMove(MAX_DEPTH, SearchClock.withNodeBudget(Long.MAX_VALUE));
+    assertTrue(winDepth > 0);
+  }
+
+  @Test
+  public void testHitStartsAtThePonderedDepth() {
+    ponderUntilDone();
+    DepthRecorder timeManager = new DepthRecorder(ponderedState);
+
+    assertEquals(winningMove, session.findBestMove(ponderedState, MAX_DEPTH, timeManager));
+    // The depths before the win were pondered
+    assertTrue(timeManager.depths.get(0) >= winDepth);
+  }
+
+  @Test
+  public void testHitDeeperThanTheSearchStartsAtItsLastDepth() {
+    ponderUntilDone();
+    DepthRecorder timeManager = new DepthRecorder(ponderedState);
+
+    assertEquals(winningMove, session.findBestMove(ponderedState, winDepth + 1, timeManager));
+    assertEquals(Lists.newArrayList(winDepth), timeManager.depths);
+  }
+
+  @Test
+  public void testMissStartsAtTheFirstDepth() {
+    ponderUntilDone();
+    // The opponent did not play the predicted reply
+    BanqiState state = Endgames.of(Color.B, "C24:rgen", "C27:bsol", "C26:bele");
+    DepthRecorder timeManager = new DepthRecorder(state);
+
+    session.findBestMove(state, MAX_DEPTH, timeManager);
+    assertEquals(0, (int) timeManager.depths.get(0));
+  }
+
+  @Test
+  public void testHitWithoutThePonderedRootStartsAtTheFirstDepth() {
+    ponderUntilDone();
+    // The entries of the pondering are gone
+    transpositionTable.clear();
+    DepthRecorder timeManager = new DepthRecorder(ponderedState);
+
+    assertEquals(winningMove, session.findBestMove(ponderedState, MAX_DEPTH, timeManager));
+    assertEquals(0, (int) timeManager.depths.get(0));
+  }
+
+  @Test
+  public void testVariationMoveIsSearchedFirst() {
+    session.findBestMove(QUIET_STATE, VARIATION_DEPTH,
+        new DepthRecorder(QUIET_STATE, new FakeTicker()));
+    List<Move> variation = session.getPrincipalVariation();
+    assertTrue(variation.size() > 2);
+    // The opponent plays the reply the variation expects
+    BanqiState state = play(QUIET_STATE, variation.get(0), variation.get(1));
+    DepthRecorder timeManager = new DepthRecorder(state, new FakeTicker());
+    DepthRecorder newSessionTimeManager = new DepthRecorder(state, new FakeTicker());
+
+    session.findBestMove(state, 1, timeManager);
+    new AiSession(Endgames.PLAYER_IDS).findBestMove(state, 1, newSessionTimeManager);
+    assertEquals(variation.get(2), timeManager.bestMoves.get(0));
+    // Without the variation, another move is searched first
+    assertFalse(variation.get(2).equals(newSessionTimeManager.bestMoves.get(0)));
+  }
+
+  @Test
+  public void testCancelTimesOutTheSearch() {
+    TimeManager timeManager = session.newTimeManager(0, QUIET_STATE);
+
+    assertFalse(timeManager.didTimeout());
+    session.cancel();
+    assertTrue(timeManager.didTimeout());
+  }
+
+  @Test
+  public void testCancelStopsThePondering() {
+    session.startPondering(opponentState);
+
+    session.cancel();
+    assertFalse(session.ponder(PONDER_MILLISECONDS));
+  }
+
+  private void ponderUntilDone() {
+    session.startPondering(opponentState);
+    int slices = 0;
+    while (session.ponder(PONDER_MILLISECONDS)) {
+      assertTrue(++slices < MAX_PONDER_SLICES);
+    }
+  }
+
+  /** Returns the state after the moves. */
+  private static BanqiState play(BanqiState state, Move... moves) {
+    StateExplorerImpl stateExplorer = new StateExplorerImpl();
+    BitBoard board = BitBoard.fromState(state);
+    for (Move move : moves) {
+      board.doMove(
+          stateExplorer.convertToIndex(move.getFrom().getRow(), move.getFrom().getCol()),
+          stateExplorer.convertToIndex(move.getTo().getRow(), move.getTo().getCol()),
+          move.getType(), BitBoard.FACE_DOWN);
+    }
+    return board.toState();
+  }
+}
@@ -0,0 +1,419 @@
+package org.banqi.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.banqi.client.BanqiState;
+import org.banqi.client.BitBoard;
+import org.banqi.client.Color;
+import org.banqi.client.Move;
+import org.banqi.client.PackedMove;
+import org.banqi.client.StateExplorerImpl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+@RunWith(JUnit4.class)
+public class AlphaBetaPruningTest {
+
+  private static final int HELPER_DEPTH = 8;
+  private static final int HELPER_COUNT = 20;
+  private static final int MAX_REFERENCE_DEPTH = 3;
+  private static final int ENDGAME_COUNT = 60;
+  private static final int INTERRUPTED_ENDGAME_COUNT = 10;
+  private static final int INTERRUPTED_DEPTH = 5;
+  // The budgets tried in every depth, as parts of the nodes of the depth
+  private static final int INTERRUPTIONS = 4;
+  private static final long NO_LIMIT = Long.MAX_VALUE;
+
+  private final Heuristic heuristic = new Heuristic();
+  private final StateExplorerImpl stateExplorer = new StateExplorerImpl();
+  // The face down pieces of the root of the reference search
+  private int rootFaceDownCount;
+  // Whether the reference search met a node without moves, whose score the
+  // search leaves to its window
+  private boolean hasNodeWithoutMoves;
+
+  // A quiet end game without face down pieces
+  private final BanqiState quietState = Endgames.of(Color.R,
+      "C0:rcha", "C5:rhor", "C10:rsol", "C20:bcha", "C27:bhor", "C30:bsol");
+
+  /** Records the depths a search completes and their best scores. */
+  private static class DepthRecorder implements IterationListener {
+    final List<Integer> depths = Lists.newArrayList();
+    final List<Integer> bestScores = Lists.newArrayList();
+
+    @Override
+    public void onIterationCompleted(int depth, Move bestMove, int bestScore,
+        int secondBestScore) {
+      depths.add(depth);
+      bestScores.add(bestScore);
+    }
+  }
+
+  @Test
+  public void testHelpersSkipDifferentDepths() {
+    assertEquals(HELPER_DEPTH, getCompletedDepths(0).size());
+
+    List<Set<Integer>> helperDepths = Lists.newArrayList();
+    for (int helperIndex = 1; helperIndex <= HELPER_COUNT; helperIndex++) {
+      Set<Integer> depths = Sets.newHashSet(getCompletedDepths(helperIndex));
+      assertFalse(depths.isEmpty());
+      assertTrue(depths.size() < HELPER_DEPTH);
+      assertFalse(helperDepths.contains(depths));
+      helperDepths.add(depths);
+    }
+
+    // At every depth, some of the first helpers search it and the others
+    // skip it
+    for (int depth = 0; depth < HELPER_DEPTH; depth++) {
+      int searchCount = 0;
+      for (int i = 0; i < 4; i++) {
+        if (helperDepths.get(i).contains(depth)) {
+          searchCount++;
+        }
+      }
+      assertTrue(searchCount > 0 && searchCount < 4);
+    }
+  }
+
+  @Test
+  public void testMoveScoresMatchExpectiminimax() {
+    int comparedCount = 0;
+    for (BanqiState state : getRandomEndgames(ENDGAME_COUNT)) {
+      for (int depth = 1; depth <= MAX_REFERENCE_DEPTH; depth++) {
+        Map<Move, Integer> referenceScores = getReferenceScores(state, depth);
+        if (referenceScores == null) {
+          continue;
+        }
+        Map<Move, Integer> moveScores = new AlphaBetaPruning(heuristic, state)
+            .findMoveScores(depth, SearchClock.withNodeBudget(NO_LIMIT));
+        assertEquals(referenceScores, moveScores);
+        comparedCount += moveScores.size();
+      }
+    }
+    assertTrue(comparedCount > 1000);
+  }
+
+  @Test
+  public void testBestMoveMatchesExpectiminimax() {
+    for (BanqiState state : getRandomEndgames(ENDGAME_COUNT)) {
+      for (int depth = 1; depth <= MAX_REFERENCE_DEPTH; depth++) {
+        Map<Move, Integer> referenceScores = getReferenceScores(state, depth);
+        if (referenceScores == null) {
+          continue;
+        }
+        int bestScore = Collections.max(referenceScores.values());
+        Move bestMove = new AlphaBetaPruning(heuristic, state)
+            .findBestMove(depth, SearchClock.withNodeBudget(NO_LIMIT));
+        assertEquals(bestScore, (int) referenceScores.get(bestMove));
+
+        // A listener makes the root test the lead of a stable best move
+        AlphaBetaPruning ai = new AlphaBetaPruning(heuristic, state);
+        DepthRecorder recorder = new DepthRecorder();
+        ai.setIterationListener(recorder);
+        bestMove = ai.findBestMove(depth, SearchClock.withNodeBudget(NO_LIMIT));
+        assertEquals(bestScore, (int) referenceScores.get(bestMove));
+        assertEquals(bestScore, (int) recorder.bestScores.get(depth - 1));
+      }
+    }
+  }
+
+  @Test
+  public void testWinScoreCountsThePlies() {
+    // The black soldier captures the last red piece
+    BanqiState state = Endgames.of(Color.B, "C24:rgen", "C25:bsol", "C3:bcha");
+    Move capture = PackedMove.toMove(PackedMove.capture(25, 24));
+
+    Map<Move, Integer> moveScores = new AlphaBetaPruning(heuristic, state)
+        .findMoveScores(4, SearchClock.withNodeBudget(NO_LIMIT));
+    assertEquals(AlphaBetaPruning.WIN_SCORE - 1, (int) moveScores.get(capture));
+    for (Map.Entry<Move, Integer> entry : moveScores.entrySet()) {
+      if (!entry.getKey().equals(capture)) {
+        assertTrue(entry.getValue() < AlphaBetaPruning.WIN_SCORE - 1);
+      }
+    }
+    assertEquals(capture, new AlphaBetaPruning(heuristic, state)
+        .findBestMove(4, SearchClock.withNodeBudget(NO_LIMIT)));
+  }
+
+  @Test
+  public void testWinScoreStaysTheSameDeeper() {
+    // Black wins in a few moves, whatever the red general does
+    BanqiState state = Endgames.of(Color.B, "C16:rgen", "C25:bsol", "C26:bele");
+    AlphaBetaPruning ai = new AlphaBetaPruning(heuristic, state);
+    DepthRecorder recorder = new DepthRecorder();
+    ai.setIterationListener(recorder);
+    ai.findBestMove(12, SearchClock.withNodeBudget(NO_LIMIT));
+
+    int winScore = recorder.bestScores.get(recorder.bestScores.size() - 1);
+    assertTrue(AlphaBetaPruning.isWinScore(winScore));
+    // Black makes the last move of the win
+    assertEquals(1, (AlphaBetaPruning.WIN_SCORE - winScore) % 2);
+    // Once found, the win is at the same distance at every depth, whether it
+    // comes from the table or not
+    int firstWinDepth = 0;
+    while (!AlphaBetaPruning.isWinScore(recorder.bestScores.get(firstWinDepth))) {
+      firstWinDepth++;
+    }
+    assertTrue(firstWinDepth > 0);
+    for (int i = firstWinDepth; i < recorder.bestScores.size(); i++) {
+      assertEquals(winScore, (int) recorder.bestScores.get(i));
+    }
+    // And it is a loss as far for red
+    BanqiState redState = Endgames.of(Color.R, "C24:rgen", "C25:bsol", "C26:bele");
+    Map<Move, Integer> redScores = new AlphaBetaPruning(heuristic, redState)
+        .findMoveScores(12, SearchClock.withNodeBudget(NO_LIMIT));
+    assertEquals(-(winScore - 1), (int) redScores.values().iterator().next());
+  }
+
+  @Test
+  public void testInterruptedMoveScoresAreThoseOfTheCompletedDepth() {
+    for (BanqiState state : getRandomEndgames(INTERRUPTED_ENDGAME_COUNT)) {
+      List<Long> nodeCounts = getCompletedNodeCounts(state, true);
+      for (int i = 0; i + 1 < nodeCounts.size(); i++) {
+        Map<Move, Integer> completedScores = new AlphaBetaPruning(heuristic, state)
+            .findMoveScores(i + 1, SearchClock.withNodeBudget(NO_LIMIT));
+        for (long nodeBudget : getBudgetsWithin(nodeCounts.get(i), nodeCounts.get(i + 1))) {
+          assertEquals(completedScores, new AlphaBetaPruning(heuristic, state)
+              .findMoveScores(INTERRUPTED_DEPTH, SearchClock.withNodeBudget(nodeBudget)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testInterruptedBestMoveIsTheCompletedOneOrBetter() {
+    for (BanqiState state : getRandomEndgames(INTERRUPTED_ENDGAME_COUNT)) {
+      List<Long> nodeCounts = getCompletedNodeCounts(state, false);
+      for (int i = 0; i + 1 < nodeCounts.size(); i++) {
+        Move completedBestMove = new AlphaBetaPruning(heuristic, state)
+            .findBestMove(i + 1, SearchClock.withNodeBudget(NO_LIMIT));
+        Map<Move, Integer> interruptedScores = new AlphaBetaPruning(heuristic, state)
+            .findMoveScores(i + 2, SearchClock.withNodeBudget(NO_LIMIT));
+        for (long nodeBudget : getBudgetsWithin(nodeCounts.get(i), nodeCounts.get(i + 1))) {
+          Move bestMove = new AlphaBetaPruning(heuristic, state)
+              .findBestMove(INTERRUPTED_DEPTH, SearchClock.withNodeBudget(nodeBudget));
+          // The interrupted depth only puts first a move it proved better
+          if (!bestMove.equals(completedBestMove)) {
+            assertTrue(interruptedScores.get(bestMove) > interruptedScores.get(completedBestMove));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of nodes searched when each depth is completed, by
+   * {@link AlphaBetaPruning#findMoveScores} or else by
+   * {@link AlphaBetaPruning#findBestMove}.
+   */
+  private List<Long> getCompletedNodeCounts(BanqiState state, boolean isMoveScores) {
+    final SearchClock clock = SearchClock.withNodeBudget(NO_LIMIT);
+    final List<Long> nodeCounts = Lists.newArrayList();
+    AlphaBetaPruning ai = new AlphaBetaPruning(heuristic, state);
+    ai.setIterationListener(new IterationListener() {
+      @Override
+      public void onIterationCompleted(int depth, Move bestMove, int bestScore,
+          int secondBestScore) {
+        nodeCounts.add(clock.getNodeCount());
+      }
+    });
+    if (isMoveScores) {
+      ai.findMoveScores(INTERRUPTED_DEPTH, clock);
+    } else {
+      ai.findBestMove(INTERRUPTED_DEPTH, clock);
+    }
+    assertEquals(INTERRUPTED_DEPTH, nodeCounts.size());
+    return nodeCounts;
+  }
+
+  /**
+   * Returns node budgets which interrupt the depth after the completed one,
+   * whose nodes are between the counts.
+   */
+  private List<Long> getBudgetsWithin(long completedCount, long nextCount) {
+    List<Long> nodeBudgets = Lists.newArrayList();
+    for (int i = 0; i < INTERRUPTIONS; i++) {
+      nodeBudgets.add(completedCount + 1 + (nextCount - completedCount - 1) * i / INTERRUPTIONS);
+    }
+    return nodeBudgets;
+  }
+
+  /** Returns the depths completed by the search, a helper unless the index is 0. */
+  private List<Integer> getCompletedDepths(int helperIndex) {
+    AlphaBetaPruning ai = new AlphaBetaPruning(heuristic, quietState);
+    if (helperIndex > 0) {
+      ai.setHelper(helperIndex);
+    }
+    DepthRecorder recorder = new DepthRecorder();
+    ai.setIterationListener(recorder);
+    ai.findBestMove(HELPER_DEPTH, SearchClock.withNodeBudget(Long.MAX_VALUE));
+    return recorder.depths;
+  }
+
+  /**
+   * Returns end games with three to five pieces face up and one to three
+   * face down, where the game is not over and the player to move can move.
+   */
+  private List<BanqiState> getRandomEndgames(int count) {
+    List<String> names = Lists.newArrayList();
+    for (int code = 0; code < BitBoard.PIECE_CODES; code++) {
+      for (int i = 0; i < BitBoard.getInitialCount(BitBoard.kindOf(code)); i++) {
+        names.add(BitBoard.toCell(code).get().getPieceFourLetterString());
+      }
+    }
+    List<Integer> cells = Lists.newArrayList();
+    for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+      cells.add(cell);
+    }
+
+    Random random = new Random(7);
+    List<BanqiState> states = Lists.newArrayList();
+    while (states.size() < count) {
+      Collections.shuffle(names, random);
+      Collections.shuffle(cells, random);
+      int faceUpCount = 3 + random.nextInt(3);
+      int faceDownCount = 1 + random.nextInt(3);
+      String[] pieces = new String[faceUpCount + faceDownCount];
+      for (int i = 0; i < pieces.length; i++) {
+        pieces[i] = "C" + cells.get(i) + ":" + (i < faceUpCount ? "" : "?") + names.get(i);
+      }
+      BanqiState state = Endgames.of(random.nextBoolean() ? Color.R : Color.B, pieces);
+      if (!stateExplorer.getPossibleMoves(state).isEmpty()) {
+        states.add(state);
+      }
+    }
+    return states;
+  }
+
+  /**
+   * Returns the scores of all the possible moves of the state by a plain
+   * expectiminimax of the depth, or null if it meets a node without moves.
+   */
+  private Map<Move, Integer> getReferenceScores(BanqiState state, int depth) {
+    BitBoard board = BitBoard.fromState(state);
+    rootFaceDownCount = Integer.bitCount(board.getFaceDownMask());
+    hasNodeWithoutMoves = false;
+    Map<Move, Integer> scores = Maps.newHashMap();
+    for (Move move : stateExplorer.getPossibleMoves(state)) {
+      scores.put(move, getReferenceMoveScore(board, PackedMove.fromMove(move), depth - 1));
+    }
+    return hasNodeWithoutMoves ? null : scores;
+  }
+
+  /**
+   * Returns the score of the move for the player making it, with the depth
+   * left after it: a turn is the average of its outcomes weighted by the
+   * face down pieces, rounded toward zero like the search does.
+   */
+  private int getReferenceMoveScore(BitBoard board, int move, int depth) {
+    int from = PackedMove.getFrom(move);
+    if (!PackedMove.isTurn(move)) {
+      board.doMove(from, PackedMove.getTo(move), PackedMove.getType(move), BitBoard.FACE_DOWN);
+      int score = -getReferenceScore(board, depth);
+      board.undoMove();
+      return score;
+    }
+    long total = 0;
+    long scoreSum = 0;
+    for (int code = 0; code < BitBoard.PIECE_CODES; code++) {
+      int weight = board.getFaceDownCount(code);
+      if (weight > 0) {
+        board.doMove(from, from, Move.Type.TURN, code);
+        scoreSum += weight * (long) -getReferenceScore(board, depth);
+        board.undoMove();
+        total += weight;
+      }
+    }
+    return (int) (scoreSum / total);
+  }
+
+  /**
+   * Returns the score of the board for the player to move without any
+   * pruning. The leaves are those of the search: the quiescence search, and
+   * at the frontier (depth 1) the captures which lose the exchange are only
+   * searched when there is no other move, the first of them by exchange.
+   */
+  private int getReferenceScore(BitBoard board, int depth) {
+    if (board.getWinner() != Color.N) {
+      return getReferenceStateScore(board);
+    } else if (depth == 0) {
+      return getReferenceQuiescenceScore(board);
+    }
+
+    int[] moves = new int[PackedMove.MAX_MOVES];
+    int moveCount = stateExplorer.getPossibleMoves(board, moves);
+    int bestScore = Integer.MIN_VALUE;
+    int bestLosingCapture = PackedMove.NONE;
+    int bestExchangeValue = Integer.MIN_VALUE;
+    for (int i = 0; i < moveCount; i++) {
+      int move = moves[i];
+      if (depth == 1 && PackedMove.isCapture(move)) {
+        int exchangeValue = heuristic.getExchangeValue(board, move);
+        if (exchangeValue < 0) {
+          if (exchangeValue > bestExchangeValue) {
+            bestLosingCapture = move;
+            bestExchangeValue = exchangeValue;
+          }
+          continue;
+        }
+      }
+      bestScore = Math.max(bestScore, getReferenceMoveScore(board, move, depth - 1));
+    }
+    if (bestScore == Integer.MIN_VALUE && bestLosingCapture != PackedMove.NONE) {
+      bestScore = getReferenceMoveScore(board, bestLosingCapture, depth - 1);
+    }
+    if (bestScore == Integer.MIN_VALUE) {
+      hasNodeWithoutMoves = true;
+      return 0;
+    }
+    return bestScore;
+  }
+
+  /**
+   * Returns the best of standing pat and the captures which do not lose the
+   * exchange, searched until the board is quiet.
+   */
+  private int getReferenceQuiescenceScore(BitBoard board) {
+    int bestScore = getReferenceStateScore(board);
+    if (board.getWinner() != Color.N) {
+      return bestScore;
+    }
+    for (Move capture : heuristic.getOrderedCaptures(board, 0)) {
+      int move = PackedMove.fromMove(capture);
+      board.doMove(PackedMove.getFrom(move), PackedMove.getTo(move), Move.Type.CAPTURE,
+          BitBoard.FACE_DOWN);
+      bestScore = Math.max(bestScore, -getReferenceQuiescenceScore(board));
+      board.undoMove();
+    }
+    return bestScore;
+  }
+
+  /**
+   * Returns the score of the board for the player to move: a win less the
+   * plies from the root, or the heuristic value decayed by the pieces
+   * turned up since the root.
+   */
+  private int getReferenceStateScore(BitBoard board) {
+    Color winner = board.getWinner();
+    if (winner != Color.N) {
+      int winScore = AlphaBetaPruning.WIN_SCORE - board.getUndoCount();
+      return winner == board.getTurn() ? winScore : -winScore;
+    }
+    int turnCount = rootFaceDownCount - Integer.bitCount(board.getFaceDownMask());
+    int value = (int) (heuristic.getStateValue(board) * Math.pow(0.98, turnCount));
+    return board.getTurn().isBlack() ? value : -value;
+  }
+}
@@ -0,0 +1,54 @@
+package org.banqi.ai;
+
+import java.util.List;
+
+import org.banqi.client.BanqiState;
+import org.banqi.client.BitBoard;
+import org.banqi.client.Color;
+import org.banqi.client.Piece;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/** Builds the small states the tests of the AI search. */
+public final class Endgames {
+  public static final ImmutableList<String> PLAYER_IDS = ImmutableList.of("7", "47");
+
+  private Endgames() {
+  }
+
+  /**
+   * Returns the state with the turn and the pieces, e.g. "C24:rgen" for a
+   * red general face up in the cell 24 and "C3:?bsol" for a black soldier
+   * face down in the cell 3. All the other pieces are captured.
+   */
+  public static BanqiState of(Color turn, String... pieces) {
+    List<Optional<Piece>> cells = Lists.newArrayList();
+    for (int i = 0; i < BitBoard.CELLS; i++) {
+      cells.add(BitBoard.toCell(BitBoard.EMPTY));
+    }
+    int[] counts = new int[BitBoard.PIECE_CODES];
+    for (String piece : pieces) {
+      int cell = Integer.parseInt(piece.substring(1, piece.indexOf(':')));
+      String name = piece.substring(piece.indexOf(':') + 1);
+      boolean isFaceDown = name.startsWith("?");
+      if (isFaceDown) {
+        name = name.substring(1);
+      }
+      int code = BitBoard.code(Piece.Kind.fromFirstThreeLetterLowerCase(name.substring(1)),
+          Piece.PieceColor.fromFirstLetterLowerCase(name.substring(0, 1)));
+      counts[code]++;
+      cells.set(cell, isFaceDown ? Optional.<Piece>absent() : BitBoard.toCell(code));
+    }
+
+    List<Piece> capturedPieces = Lists.newArrayList();
+    for (int code = 0; code < BitBoard.PIECE_CODES; code++) {
+      for (int i = counts[code]; i < BitBoard.getInitialCount(BitBoard.kindOf(code)); i++) {
+        capturedPieces.add(BitBoard.toCell(code).get());
+      }
+    }
+    return new BanqiState(turn, PLAYER_IDS, ImmutableList.copyOf(cells),
+        ImmutableList.copyOf(capturedPieces));
+  }
+}
@@ -0,0 +1,21 @@
+package org.banqi.ai;
+
+import com.google.common.base.Ticker;
+
+/** A ticker whose time only moves when told to, and which counts its reads. */
+class FakeTicker extends Ticker {
+  private static final long NANOS_PER_MILLI = 1000000L;
+
+  long nanos = 0;
+  int readCount = 0;
+
+  @Override
+  public long read() {
+    readCount++;
+    return nanos;
+  }
+
+  void advanceMilliseconds(long milliseconds) {
+    nanos += milliseconds * NANOS_PER_MILLI;
+  }
+}
@@ -0,0 +1,74 @@
+package org.banqi.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.banqi.client.BanqiState;
+import org.banqi.client.Color;
+import org.banqi.client.Move;
+import org.banqi.client.Position;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InformationSetMctsTest {
+
+  private static final long SEED = 7;
+  private static final int ITERATIONS = 2000;
+
+  /** A timer which stops the search after a number of iterations. */
+  private static class IterationBudget implements Timer {
+    private int iterationsLeft;
+
+    IterationBudget(int iterations) {
+      iterationsLeft = iterations;
+    }
+
+    @Override
+    public boolean didTimeout() {
+      return false;
+    }
+
+    @Override
+    public boolean didSoftTimeout() {
+      return --iterationsLeft <= 0;
+    }
+  }
+
+  @Test
+  public void testWinningCaptureIsPicked() {
+    // The red chariot takes the last black piece
+    BanqiState state = Endgames.of(Color.R, "C9:rcha", "C10:bsol", "C0:rsol");
+
+    assertEquals(new Move(Position.of(2, 2), Position.of(2, 3), Move.Type.CAPTURE),
+        findBestMove(state));
+  }
+
+  @Test
+  public void testFreeCaptureIsPicked() {
+    // The black horse is undefended, the face down pieces are far
+    BanqiState state = Endgames.of(Color.R, "C9:rcha", "C10:bhor", "C0:rsol", "C31:bsol",
+        "C23:?rele", "C22:?bele");
+
+    assertEquals(new Move(Position.of(2, 2), Position.of(2, 3), Move.Type.CAPTURE),
+        findBestMove(state));
+  }
+
+  @Test
+  public void testRootWithoutMovesHasNoBestMove() {
+    // The red soldier is blocked by the black elephants, and the game is
+    // not over
+    BanqiState state = Endgames.of(Color.R, "C0:rsol", "C1:bele", "C8:bele");
+
+    assertNull(findBestMove(state));
+  }
+
+  private static Move findBestMove(BanqiState state) {
+    InformationSetMcts ismcts =
+        new InformationSetMcts(new Heuristic(), state, new Random(SEED));
+    return ismcts.findBestMove(new IterationBudget(ITERATIONS));
+  }
+}
@@ -0,0 +1,77 @@
+package org.banqi.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.banqi.client.PackedMove;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MoveHistoryTest {
+
+  // Past the plies with killers, so only the history scores the moves
+  private static final int NO_KILLER_PLY = 200;
+
+  private final MoveHistory moveHistory = new MoveHistory();
+  private final int move = PackedMove.move(9, 10);
+  private final int otherMove = PackedMove.turn(3);
+
+  @Test
+  public void testKillers() {
+    moveHistory.addCutoff(move, 4, 1);
+    assertEquals(MoveHistory.KILLER_SCORE + 1, moveHistory.getScore(move, 4));
+
+    moveHistory.addCutoff(otherMove, 4, 1);
+    assertEquals(MoveHistory.KILLER_SCORE + 1, moveHistory.getScore(otherMove, 4));
+    assertEquals(MoveHistory.KILLER_SCORE, moveHistory.getScore(move, 4));
+    // The other plies only have the history
+    assertEquals(1, moveHistory.getScore(move, 5));
+  }
+
+  @Test
+  public void testHistoryIsWeightedByTheDepthSquared() {
+    moveHistory.addCutoff(move, NO_KILLER_PLY, 3);
+    moveHistory.addCutoff(move, NO_KILLER_PLY, 2);
+    assertEquals(13, moveHistory.getScore(move, NO_KILLER_PLY));
+    assertEquals(0, moveHistory.getScore(otherMove, NO_KILLER_PLY));
+  }
+
+  @Test
+  public void testHistoryIsHalvedAtTheKillerScore() {
+    moveHistory.addCutoff(otherMove, NO_KILLER_PLY, 10);
+    // 4096 cutoffs at depth 64 add up to the killer score
+    for (int i = 1; i < 4096; i++) {
+      moveHistory.addCutoff(move, NO_KILLER_PLY, 64);
+    }
+    assertEquals(MoveHistory.KILLER_SCORE - 64 * 64, moveHistory.getScore(move, NO_KILLER_PLY));
+    assertEquals(100, moveHistory.getScore(otherMove, NO_KILLER_PLY));
+
+    moveHistory.addCutoff(move, NO_KILLER_PLY, 64);
+    // All the history is halved, so it stays below the killers
+    assertEquals(MoveHistory.KILLER_SCORE / 2, moveHistory.getScore(move, NO_KILLER_PLY));
+    assertEquals(50, moveHistory.getScore(otherMove, NO_KILLER_PLY));
+    for (int i = 0; i < 10000; i++) {
+      moveHistory.addCutoff(move, NO_KILLER_PLY, 64);
+      assertTrue(moveHistory.getScore(move, NO_KILLER_PLY) < MoveHistory.KILLER_SCORE);
+    }
+  }
+
+  @Test
+  public void testNewSearch() {
+    moveHistory.addCutoff(move, 6, 4);
+    moveHistory.newSearch();
+
+    // The killers move up two plies and the history is halved
+    assertEquals(MoveHistory.KILLER_SCORE + 1, moveHistory.getScore(move, 4));
+    assertEquals(8, moveHistory.getScore(move, 6));
+  }
+
+  @Test
+  public void testClear() {
+    moveHistory.addCutoff(move, 4, 4);
+    moveHistory.clear();
+    assertEquals(0, moveHistory.getScore(move, 4));
+  }
+}
@@ -0,0 +1,108 @@
+package org.banqi.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SearchClockTest {
+
+  private static final long NANOS_PER_MILLI = 1000000L;
+  private static final long NO_LIMIT = Long.MAX_VALUE;
+
+  private final FakeTicker ticker = new FakeTicker();
+
+  private SearchClock newClock(long softMilliseconds, long hardMilliseconds, long nodeBudget,
+      int pollInterval) {
+    return new SearchClock(ticker, softMilliseconds * NANOS_PER_MILLI,
+        hardMilliseconds * NANOS_PER_MILLI, nodeBudget, pollInterval);
+  }
+
+  @Test
+  public void testSoftDeadline() {
+    SearchClock clock = newClock(5, 10, NO_LIMIT, 4);
+
+    ticker.advanceMilliseconds(4);
+    assertFalse(clock.didSoftTimeout());
+    ticker.advanceMilliseconds(1);
+    assertTrue(clock.didSoftTimeout());
+    // The soft deadline does not interrupt the search
+    for (int i = 0; i < 8; i++) {
+      assertFalse(clock.didTimeout());
+    }
+  }
+
+  @Test
+  public void testHardDeadline() {
+    SearchClock clock = newClock(5, 10, NO_LIMIT, 4);
+
+    for (int i = 0; i < 4; i++) {
+      assertFalse(clock.didTimeout());
+    }
+    ticker.advanceMilliseconds(10);
+    // The time is only read on the 4th node after the deadline
+    for (int i = 0; i < 3; i++) {
+      assertFalse(clock.didTimeout());
+    }
+    assertTrue(clock.didTimeout());
+    assertTrue(clock.didSoftTimeout());
+    assertEquals(8, clock.getNodeCount());
+  }
+
+  @Test
+  public void testStaysTimedOut() {
+    SearchClock clock = newClock(5, 10, NO_LIMIT, 1);
+
+    ticker.advanceMilliseconds(10);
+    assertTrue(clock.didTimeout());
+    int readCount = ticker.readCount;
+    for (int i = 0; i < 16; i++) {
+      assertTrue(clock.didTimeout());
+    }
+    // Neither the time is read nor the nodes are counted any more
+    assertEquals(readCount, ticker.readCount);
+    assertEquals(1, clock.getNodeCount());
+  }
+
+  @Test
+  public void testNodeBudget() {
+    SearchClock clock = newClock(NO_LIMIT / NANOS_PER_MILLI, NO_LIMIT / NANOS_PER_MILLI, 100,
+        SearchClock.DEFAULT_POLL_INTERVAL);
+
+    for (int i = 1; i < 100; i++) {
+      assertFalse(clock.didTimeout());
+    }
+    ticker.advanceMilliseconds(1000000);
+    assertTrue(clock.didTimeout());
+    assertEquals(100, clock.getNodeCount());
+  }
+
+  @Test
+  public void testTimeIsReadEveryPollInterval() {
+    SearchClock clock = newClock(5, 10, NO_LIMIT, 8);
+    // The start is read once
+    assertEquals(1, ticker.readCount);
+
+    for (int i = 1; i <= 64; i++) {
+      clock.didTimeout();
+      assertEquals(1 + i / 8, ticker.readCount);
+    }
+  }
+
+  @Test
+  public void testElapsedMilliseconds() {
+    SearchClock clock = newClock(5, 10, NO_LIMIT, 8);
+
+    ticker.advanceMilliseconds(7);
+    assertEquals(7, clock.getElapsedMilliseconds());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPollIntervalMustBeAPowerOfTwo() {
+    newClock(5, 10, NO_LIMIT, 12);
+  }
+}
@@ -0,0 +1,202 @@
+package org.banqi.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.banqi.client.BitBoard;
+import org.banqi.client.Color;
+import org.banqi.client.Move;
+import org.banqi.client.PackedMove;
+import org.banqi.client.StateExplorerImpl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/*
+ * The first row of the board is the cells 0 to 7, the cell below a cell is
+ * 8 more.
+ */
+@RunWith(JUnit4.class)
+public class StaticExchangeEvaluatorTest {
+
+  private static final int HORSE = 6;
+  private static final int CHARIOT = 13;
+  private static final int CANNON = 55;
+  private static final int SOLDIER = 1;
+  private static final int GENERAL = 111;
+
+  private final Heuristic heuristic = new Heuristic();
+  private final StateExplorerImpl stateExplorer = new StateExplorerImpl();
+
+  @Test
+  public void testUndefendedCapture() {
+    BitBoard board = getBoard("C3:bhor", "C4:rcha");
+    assertEquals(HORSE, StaticExchangeEvaluator.evaluate(board, 4, 3));
+  }
+
+  @Test
+  public void testEvenTrade() {
+    BitBoard board = getBoard("C3:bhor", "C4:rhor", "C11:bcha");
+    assertEquals(0, StaticExchangeEvaluator.evaluate(board, 4, 3));
+  }
+
+  @Test
+  public void testCannonLosesItsScreen() {
+    // The chariot is the screen of the cannon, once it captures the cannon
+    // cannot recapture and the black chariot wins the exchange
+    BitBoard board = getBoard("C3:bhor", "C4:rcha", "C6:rcan", "C11:bcha");
+    assertEquals(HORSE - CHARIOT, StaticExchangeEvaluator.evaluate(board, 4, 3));
+    // The cannon itself captures over the chariot, the black chariot takes
+    // the cannon and the red chariot takes it back
+    assertEquals(HORSE - CANNON + CHARIOT, StaticExchangeEvaluator.evaluate(board, 6, 3));
+  }
+
+  @Test
+  public void testCannonGetsItsScreen() {
+    // The horse and the soldier are two screens, once the horse captures the
+    // soldier is the only one, so the black chariot does not recapture
+    BitBoard board = getBoard("C3:bhor", "C4:rhor", "C5:rsol", "C6:rcan", "C11:bcha");
+    assertEquals(HORSE, StaticExchangeEvaluator.evaluate(board, 4, 3));
+    // Without the soldier, the cannon has no screen left
+    board = getBoard("C3:bhor", "C4:rhor", "C6:rcan", "C11:bcha");
+    assertEquals(0, StaticExchangeEvaluator.evaluate(board, 4, 3));
+  }
+
+  @Test
+  public void testRecaptureOpensTheLineOfCannon() {
+    // The black chariot and the soldier are two screens of the cannon below,
+    // once the chariot recaptures the cannon would take it
+    BitBoard board = getBoard("C3:bhor", "C4:rhor", "C11:bcha", "C19:rsol", "C27:rcan");
+    assertEquals(HORSE, StaticExchangeEvaluator.evaluate(board, 4, 3));
+  }
+
+  @Test
+  public void testCannonScreenIsAnyPiece() {
+    // A face down piece and a piece of the other color are screens too
+    BitBoard board = getBoard("C3:bhor", "C4:?rsol", "C6:rcan");
+    assertEquals(HORSE, StaticExchangeEvaluator.evaluate(board, 6, 3));
+    board = getBoard("C3:bhor", "C4:bsol", "C6:rcan");
+    assertEquals(HORSE, StaticExchangeEvaluator.evaluate(board, 6, 3));
+  }
+
+  @Test
+  public void testSoldierCapturesGeneral() {
+    BitBoard board = getBoard("C3:bgen", "C4:rsol", "C11:badv");
+    // The advisor takes the soldier back
+    assertEquals(GENERAL - SOLDIER, StaticExchangeEvaluator.evaluate(board, 4, 3));
+  }
+
+  @Test
+  public void testGeneralCannotCaptureSoldier() {
+    BitBoard board = getBoard("C3:bsol", "C4:rsol", "C2:bgen");
+    assertEquals(SOLDIER, StaticExchangeEvaluator.evaluate(board, 4, 3));
+    // A soldier can
+    board = getBoard("C3:bsol", "C4:rsol", "C2:bgen", "C11:bsol");
+    assertEquals(0, StaticExchangeEvaluator.evaluate(board, 4, 3));
+  }
+
+  @Test
+  public void testGeneralRecapturesOtherPieces() {
+    BitBoard board = getBoard("C3:bhor", "C4:rhor", "C2:bgen");
+    assertEquals(0, StaticExchangeEvaluator.evaluate(board, 4, 3));
+  }
+
+  @Test
+  public void testLeastValuablePieceRecapturesFirst() {
+    // The horse takes the horse back, not the general which the soldier
+    // would then take
+    BitBoard board = getBoard("C10:bsol", "C9:rhor", "C2:bgen", "C11:bhor", "C18:rsol");
+    assertEquals(SOLDIER - HORSE, StaticExchangeEvaluator.evaluate(board, 9, 10));
+  }
+
+  @Test
+  public void testLosingCapture() {
+    // The elephant takes the chariot back
+    BitBoard board = getBoard(Color.R, "C3:bsol", "C4:rcha", "C2:bele", "C20:rhor", "C21:bhor");
+    int losingCapture = PackedMove.capture(4, 3);
+    int goodCapture = PackedMove.capture(20, 21);
+    assertEquals(SOLDIER - CHARIOT, StaticExchangeEvaluator.evaluate(board, 4, 3));
+    assertTrue(heuristic.getExchangeValue(board, losingCapture) < 0);
+    assertEquals(HORSE, heuristic.getExchangeValue(board, goodCapture));
+
+    // The quiescence search only searches the captures which do not lose
+    List<Move> captures = heuristic.getOrderedCaptures(board, 0);
+    assertEquals(1, captures.size());
+    assertEquals(PackedMove.toMove(goodCapture), captures.get(0));
+
+    // The picker searches the losing capture last, after the quiet moves
+    MovePicker movePicker = new MovePicker(new int[StaticExchangeEvaluator.GAINS_LENGTH]);
+    movePicker.init(board, TranspositionTable.NO_MOVE, 0, heuristic, new MoveHistory());
+    assertEquals(goodCapture, movePicker.nextMove());
+    assertFalse(movePicker.isLosingCapture());
+    int pickedCount = 1;
+    int move = movePicker.nextMove();
+    while (move != losingCapture) {
+      assertFalse(movePicker.isLosingCapture());
+      assertFalse(PackedMove.isCapture(move));
+      pickedCount++;
+      move = movePicker.nextMove();
+    }
+    assertTrue(movePicker.isLosingCapture());
+    assertEquals(PackedMove.NONE, movePicker.nextMove());
+    assertEquals(stateExplorer.getPossibleMoves(board, new int[PackedMove.MAX_MOVES]),
+        pickedCount + 1);
+  }
+
+  @Test
+  public void testGainIsWithinTheCapturedAndCapturingValues() {
+    Random random = new Random(11);
+    int[] captures = new int[PackedMove.MAX_MOVES];
+    int capturesChecked = 0;
+    for (int i = 0; i < 500; i++) {
+      BitBoard board = getRandomBoard(random);
+      int captureCount = stateExplorer.getPossibleCaptures(board, captures);
+      for (int j = 0; j < captureCount; j++) {
+        int from = PackedMove.getFrom(captures[j]);
+        int to = PackedMove.getTo(captures[j]);
+        int captured = BitBoard.getKindValue(BitBoard.kindOf(board.getCell(to)));
+        int capturing = BitBoard.getKindValue(BitBoard.kindOf(board.getCell(from)));
+        int gain = StaticExchangeEvaluator.evaluate(board, from, to);
+        assertTrue(gain >= captured - capturing);
+        assertTrue(gain <= captured);
+        capturesChecked++;
+      }
+    }
+    assertTrue(capturesChecked > 500);
+  }
+
+  private BitBoard getBoard(String... pieces) {
+    return getBoard(Color.R, pieces);
+  }
+
+  private BitBoard getBoard(Color turn, String... pieces) {
+    return BitBoard.fromState(Endgames.of(turn, pieces));
+  }
+
+  /** Returns a board with ten face up pieces and two face down ones. */
+  private BitBoard getRandomBoard(Random random) {
+    String[] names = {"gen", "adv", "ele", "cha", "hor", "can", "sol"};
+    int[] counts = new int[BitBoard.PIECE_CODES];
+    boolean[] isOccupied = new boolean[BitBoard.CELLS];
+    String[] pieces = new String[12];
+    for (int i = 0; i < pieces.length; i++) {
+      int code;
+      do {
+        code = random.nextInt(BitBoard.PIECE_CODES);
+      } while (counts[code] == BitBoard.getInitialCount(BitBoard.kindOf(code)));
+      counts[code]++;
+      int cell;
+      do {
+        cell = random.nextInt(BitBoard.CELLS);
+      } while (isOccupied[cell]);
+      isOccupied[cell] = true;
+      pieces[i] = "C" + cell + ":" + (i < 10 ? "" : "?")
+          + (BitBoard.colorOf(code) == 0 ? "r" : "b") + names[BitBoard.kindOf(code)];
+    }
+    return getBoard(random.nextBoolean() ? Color.R : Color.B, pieces);
+  }
+}
@@ -0,0 +1,227 @@
+package org.banqi.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.banqi.client.BitBoard;
+import org.banqi.client.Color;
+import org.banqi.client.Move;
+import org.banqi.client.Position;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TimeManagerTest {
+
+  // More reads than the poll interval of the clock
+  private static final int POLLS = 2048;
+
+  // Red has many moves and no piece is face down
+  private static final BitBoard END_GAME = BitBoard.fromState(Endgames.of(Color.R,
+      "C9:rcha", "C13:rhor", "C18:rsol", "C22:radv", "C29:rele", "C0:bgen", "C7:bcan",
+      "C31:bsol"));
+  // Fewer pieces face up and almost half of the board face down
+  private static final BitBoard MIDDLE_GAME = BitBoard.fromState(Endgames.of(Color.R,
+      "C0:rcha", "C5:rhor", "C10:rsol", "C20:bcha", "C27:bhor", "C30:bsol",
+      "C8:?rgen", "C9:?radv", "C11:?radv", "C12:?rele", "C13:?rele", "C14:?rcan",
+      "C15:?rcan", "C16:?bgen", "C17:?badv", "C18:?badv", "C19:?bele", "C21:?bele",
+      "C22:?bcan", "C23:?bcan", "C24:?rsol", "C25:?bsol"));
+  // All the moves are flips
+  private static final BitBoard OPENING = BitBoard.fromState(Endgames.of(Color.R,
+      "C0:?rgen", "C31:?bgen"));
+  // The red general can only move to 16
+  private static final BitBoard SINGLE_MOVE = BitBoard.fromState(Endgames.of(Color.R,
+      "C24:rgen", "C25:bsol", "C26:bele"));
+
+  private static final Move FIRST_MOVE =
+      new Move(Position.of(1, 1), Position.of(2, 1), Move.Type.MOVE);
+  private static final Move SECOND_MOVE =
+      new Move(Position.of(1, 6), Position.of(1, 5), Move.Type.MOVE);
+
+  private final FakeTicker ticker = new FakeTicker();
+
+  @Test
+  public void testHardDeadlineIsTheTurnLessTheSafetyMargin() {
+    assertEquals(2500, new TimeManager(3, END_GAME, ticker).getHardMilliseconds());
+    assertEquals(500, new TimeManager(1, END_GAME, ticker).getHardMilliseconds());
+    assertEquals(TimeManager.DEFAULT_MILLISECONDS_FOR_TURN,
+        new TimeManager(0, END_GAME, ticker).getHardMilliseconds());
+  }
+
+  @Test
+  public void testTimeoutAtTheHardDeadline() {
+    TimeManager timeManager = new TimeManager(3, END_GAME, ticker);
+
+    ticker.advanceMilliseconds(2499);
+    assertFalse(didTimeout(timeManager));
+    assertTrue(timeManager.didSoftTimeout());
+    ticker.advanceMilliseconds(1);
+    assertTrue(didTimeout(timeManager));
+  }
+
+  @Test
+  public void testSoftTimeoutAtTheSoftDeadline() {
+    TimeManager timeManager = new TimeManager(0, END_GAME, ticker);
+    int softMilliseconds = timeManager.getSoftMilliseconds();
+
+    ticker.advanceMilliseconds(softMilliseconds - 1);
+    assertFalse(timeManager.didSoftTimeout());
+    ticker.advanceMilliseconds(1);
+    assertTrue(timeManager.didSoftTimeout());
+    assertFalse(didTimeout(timeManager));
+  }
+
+  @Test
+  public void testSoftDeadlineDependsOnThePosition() {
+    int openingMilliseconds = new TimeManager(0, OPENING, ticker).getSoftMilliseconds();
+    int middleGameMilliseconds = new TimeManager(0, MIDDLE_GAME, ticker).getSoftMilliseconds();
+    int endGameMilliseconds = new TimeManager(0, END_GAME, ticker).getSoftMilliseconds();
+
+    // The flips get 2% of the turn
+    assertEquals(TimeManager.DEFAULT_MILLISECONDS_FOR_TURN / 50, openingMilliseconds);
+    assertTrue(openingMilliseconds < middleGameMilliseconds);
+    assertTrue(middleGameMilliseconds < endGameMilliseconds);
+    assertTrue(endGameMilliseconds < TimeManager.DEFAULT_MILLISECONDS_FOR_TURN);
+  }
+
+  @Test
+  public void testChangedBestMoveGivesMoreTime() {
+    TimeManager timeManager = new TimeManager(0, END_GAME, ticker);
+    int baseMilliseconds = timeManager.getSoftMilliseconds();
+
+    // The first depth has no best move to compare to
+    timeManager.onIterationCompleted(0, FIRST_MOVE, 0, 0);
+    assertEquals(baseMilliseconds, timeManager.getSoftMilliseconds());
+    timeManager.onIterationCompleted(1, SECOND_MOVE, 0, 0);
+    assertEquals((int) (baseMilliseconds * 1.6), timeManager.getSoftMilliseconds());
+  }
+
+  @Test
+  public void testScoreSwingGivesMoreTime() {
+    TimeManager timeManager = new TimeManager(0, END_GAME, ticker);
+    int baseMilliseconds = timeManager.getSoftMilliseconds();
+
+    timeManager.onIterationCompleted(0, FIRST_MOVE, 0, 0);
+    timeManager.onIterationCompleted(1, FIRST_MOVE, 13, 0);
+    assertEquals((int) (baseMilliseconds * 1.3), timeManager.getSoftMilliseconds());
+  }
+
+  @Test
+  public void testStableBestMoveGivesLessTime() {
+    TimeManager timeManager = new TimeManager(0, END_GAME, ticker);
+    int baseMilliseconds = timeManager.getSoftMilliseconds();
+
+    timeManager.onIterationCompleted(0, FIRST_MOVE, 0, 0);
+    timeManager.onIterationCompleted(1, FIRST_MOVE, 12, 0);
+    assertEquals((int) (baseMilliseconds * 0.8), timeManager.getSoftMilliseconds());
+    for (int depth = 2; depth < 10; depth++) {
+      timeManager.onIterationCompleted(depth, FIRST_MOVE, 12, 12);
+    }
+    // Down to 40% of the base time
+    assertEquals((int) (baseMilliseconds * 0.4), timeManager.getSoftMilliseconds());
+  }
+
+  @Test
+  public void testUnstableBestMoveGetsAtMostTheHardDeadline() {
+    TimeManager timeManager = new TimeManager(0, END_GAME, ticker);
+
+    for (int depth = 0; depth < 10; depth++) {
+      timeManager.onIterationCompleted(depth, depth % 2 == 0 ? FIRST_MOVE : SECOND_MOVE, 0, 0);
+    }
+    assertEquals(timeManager.getHardMilliseconds(), timeManager.getSoftMilliseconds());
+    ticker.advanceMilliseconds(timeManager.getHardMilliseconds() - 1);
+    assertFalse(timeManager.didSoftTimeout());
+  }
+
+  @Test
+  public void testSingleMoveIsDecided() {
+    TimeManager timeManager = new TimeManager(0, SINGLE_MOVE, ticker);
+
+    assertTrue(timeManager.didSoftTimeout());
+    assertFalse(didTimeout(timeManager));
+  }
+
+  @Test
+  public void testWinIsDecided() {
+    TimeManager timeManager = new TimeManager(0, END_GAME, ticker);
+
+    timeManager.onIterationCompleted(0, FIRST_MOVE, 0, 0);
+    assertFalse(timeManager.didSoftTimeout());
+    timeManager.onIterationCompleted(1, FIRST_MOVE, AlphaBetaPruning.WIN_SCORE - 3, 0);
+    assertTrue(timeManager.didSoftTimeout());
+  }
+
+  @Test
+  public void testLossIsDecided() {
+    TimeManager timeManager = new TimeManager(0, END_GAME, ticker);
+
+    timeManager.onIterationCompleted(0, FIRST_MOVE, -AlphaBetaPruning.WIN_SCORE + 4,
+        -AlphaBetaPruning.WIN_SCORE + 2);
+    assertTrue(timeManager.didSoftTimeout());
+  }
+
+  @Test
+  public void testStableLeadingBestMoveIsDecided() {
+    TimeManager timeManager = new TimeManager(0, END_GAME, ticker);
+    int lead = AlphaBetaPruning.DOMINANCE_MARGIN;
+
+    timeManager.onIterationCompleted(0, FIRST_MOVE, lead, 0);
+    for (int depth = 1; depth < 4; depth++) {
+      timeManager.onIterationCompleted(depth, FIRST_MOVE, lead, 0);
+      assertFalse(timeManager.didSoftTimeout());
+    }
+    timeManager.onIterationCompleted(4, FIRST_MOVE, lead, 0);
+    assertTrue(timeManager.didSoftTimeout());
+  }
+
+  @Test
+  public void testStableBestMoveWithASmallLeadIsNotDecided() {
+    TimeManager timeManager = new TimeManager(0, END_GAME, ticker);
+    int lead = AlphaBetaPruning.DOMINANCE_MARGIN - 1;
+
+    for (int depth = 0; depth < 10; depth++) {
+      timeManager.onIterationCompleted(depth, FIRST_MOVE, lead, 0);
+    }
+    assertFalse(timeManager.didSoftTimeout());
+  }
+
+  @Test
+  public void testChangedBestMoveIsNotDecided() {
+    TimeManager timeManager = new TimeManager(0, END_GAME, ticker);
+    int lead = AlphaBetaPruning.DOMINANCE_MARGIN;
+
+    for (int depth = 0; depth < 4; depth++) {
+      timeManager.onIterationCompleted(depth, FIRST_MOVE, lead, 0);
+    }
+    // The stable depths start over
+    timeManager.onIterationCompleted(4, SECOND_MOVE, lead, 0);
+    for (int depth = 5; depth < 8; depth++) {
+      timeManager.onIterationCompleted(depth, SECOND_MOVE, lead, 0);
+      assertFalse(timeManager.didSoftTimeout());
+    }
+    timeManager.onIterationCompleted(8, SECOND_MOVE, lead, 0);
+    assertTrue(timeManager.didSoftTimeout());
+  }
+
+  @Test
+  public void testCancelTimesOut() {
+    TimeManager timeManager = new TimeManager(0, END_GAME, ticker);
+
+    assertFalse(timeManager.didTimeout());
+    timeManager.cancel();
+    assertTrue(timeManager.didTimeout());
+    assertTrue(timeManager.didSoftTimeout());
+  }
+
+  /** Returns whether the time manager times out within the polls of its clock. */
+  private static boolean didTimeout(TimeManager timeManager) {
+    for (int i = 0; i < POLLS; i++) {
+      if (timeManager.didTimeout()) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,124 @@
+package org.banqi.ai;
+
+import static org.junit.Assert.assertEquals;
+
+import org.banqi.client.PackedMove;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TranspositionTableTest {
+
+  // A table of 16 slots, the keys below all fall in slot 5
+  private static final int SIZE_BITS = 4;
+  private static final long KEY = 0x1234567800000005L ^ 0x12345678L;
+  private static final long OTHER_KEY = 0x0000010000000005L ^ 0x00000100L;
+  private static final long THIRD_KEY = 0x0000020000000005L ^ 0x00000200L;
+
+  private final TranspositionTable table = new TranspositionTable(SIZE_BITS);
+
+  @Test
+  public void testPackedLayout() {
+    int[] scores = {0, 1, -1, -1234, 987654, -1000000, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    int[] moves = {TranspositionTable.NO_MOVE, TranspositionTable.NO_MOVE + 1,
+        PackedMove.capture(31, 30), PackedMove.turn(17), PackedMove.move(31, 23)};
+    for (int score : scores) {
+      for (int move : moves) {
+        for (int bound = TranspositionTable.EXACT; bound <= TranspositionTable.UPPER_BOUND;
+            bound++) {
+          table.store(KEY, 37, score, bound, move);
+          long entry = table.probe(KEY);
+          assertEquals(37, TranspositionTable.getDepth(entry));
+          assertEquals(score, TranspositionTable.getScore(entry));
+          assertEquals(bound, TranspositionTable.getBound(entry));
+          assertEquals(move, TranspositionTable.getMove(entry));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDepthIsCapped() {
+    table.store(KEY, 300, 0, TranspositionTable.EXACT, TranspositionTable.NO_MOVE);
+    assertEquals(0xFF, TranspositionTable.getDepth(table.probe(KEY)));
+  }
+
+  @Test
+  public void testMissingKey() {
+    assertEquals(TranspositionTable.NO_ENTRY, table.probe(KEY));
+    table.store(KEY, 3, 10, TranspositionTable.EXACT, TranspositionTable.NO_MOVE);
+    // Another key of the same slot
+    assertEquals(TranspositionTable.NO_ENTRY, table.probe(OTHER_KEY));
+    table.clear();
+    assertEquals(TranspositionTable.NO_ENTRY, table.probe(KEY));
+  }
+
+  @Test
+  public void testTornEntryIsRejected() {
+    table.store(KEY, 3, 10, TranspositionTable.EXACT, TranspositionTable.NO_MOVE);
+    long entry = table.probe(KEY);
+    table.newSearch();
+    table.store(OTHER_KEY, 5, 20, TranspositionTable.LOWER_BOUND, PackedMove.turn(17));
+    long otherEntry = table.probe(OTHER_KEY);
+
+    // The check of one write with the entry of the other
+    table.writeSlot(KEY, KEY ^ entry, otherEntry);
+    assertEquals(TranspositionTable.NO_ENTRY, table.probe(KEY));
+    assertEquals(TranspositionTable.NO_ENTRY, table.probe(OTHER_KEY));
+    table.writeSlot(KEY, OTHER_KEY ^ otherEntry, entry);
+    assertEquals(TranspositionTable.NO_ENTRY, table.probe(KEY));
+    assertEquals(TranspositionTable.NO_ENTRY, table.probe(OTHER_KEY));
+    // The check and the entry of the same write
+    table.writeSlot(KEY, KEY ^ entry, entry);
+    assertEquals(entry, table.probe(KEY));
+  }
+
+  @Test
+  public void testDeeperEntryOfTheSearchIsKept() {
+    table.store(KEY, 8, 10, TranspositionTable.EXACT, TranspositionTable.NO_MOVE);
+    table.store(OTHER_KEY, 3, 20, TranspositionTable.EXACT, TranspositionTable.NO_MOVE);
+
+    assertEquals(TranspositionTable.NO_ENTRY, table.probe(OTHER_KEY));
+    assertEquals(8, TranspositionTable.getDepth(table.probe(KEY)));
+
+    // A deeper search of another position replaces it
+    table.store(THIRD_KEY, 9, 30, TranspositionTable.EXACT, TranspositionTable.NO_MOVE);
+    assertEquals(TranspositionTable.NO_ENTRY, table.probe(KEY));
+    assertEquals(30, TranspositionTable.getScore(table.probe(THIRD_KEY)));
+  }
+
+  @Test
+  public void testSamePositionIsReplaced() {
+    table.store(KEY, 8, 10, TranspositionTable.LOWER_BOUND, TranspositionTable.NO_MOVE);
+    table.store(KEY, 2, 20, TranspositionTable.UPPER_BOUND, TranspositionTable.NO_MOVE);
+
+    long entry = table.probe(KEY);
+    assertEquals(2, TranspositionTable.getDepth(entry));
+    assertEquals(20, TranspositionTable.getScore(entry));
+  }
+
+  @Test
+  public void testOlderSearchIsReplaced() {
+    table.store(KEY, 8, 10, TranspositionTable.EXACT, TranspositionTable.NO_MOVE);
+    table.newSearch();
+    table.store(OTHER_KEY, 3, 20, TranspositionTable.EXACT, TranspositionTable.NO_MOVE);
+
+    assertEquals(TranspositionTable.NO_ENTRY, table.probe(KEY));
+    assertEquals(20, TranspositionTable.getScore(table.probe(OTHER_KEY)));
+    // The entry of the new search is kept against a shallower one
+    table.store(KEY, 2, 30, TranspositionTable.EXACT, TranspositionTable.NO_MOVE);
+    assertEquals(TranspositionTable.NO_ENTRY, table.probe(KEY));
+  }
+
+  @Test
+  public void testGenerationWrapsAround() {
+    table.store(KEY, 8, 10, TranspositionTable.EXACT, TranspositionTable.NO_MOVE);
+    // 256 new searches come back to the generation of the entry
+    for (int i = 0; i < 256; i++) {
+      table.newSearch();
+    }
+    table.store(OTHER_KEY, 3, 20, TranspositionTable.EXACT, TranspositionTable.NO_MOVE);
+    assertEquals(10, TranspositionTable.getScore(table.probe(KEY)));
+  }
+}
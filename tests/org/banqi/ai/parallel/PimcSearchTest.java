@@ -0,0 +1,112 @@
+package org.banqi.ai.parallel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.banqi.ai.AlphaBetaPruning;
+import org.banqi.ai.Endgames;
+import org.banqi.ai.Heuristic;
+import org.banqi.ai.SearchClock;
+import org.banqi.ai.Timer;
+import org.banqi.client.BanqiState;
+import org.banqi.client.Color;
+import org.banqi.client.Move;
+import org.banqi.client.StateExplorerImpl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PimcSearchTest {
+
+  // More worlds than threads, so some worlds are queued
+  private static final int WORLD_COUNT = 6;
+  private static final int PARALLELISM = 2;
+  private static final int MAX_DEPTH = 20;
+  private static final long NODES = 20000;
+  private static final long NO_LIMIT = Long.MAX_VALUE;
+
+  // Without face down pieces every world is the state itself, and the best
+  // move changes with the depth
+  private final BanqiState state = Endgames.of(Color.R, "C0:rcha", "C1:bhor", "C5:rhor",
+      "C10:rsol", "C12:bcan", "C18:radv", "C20:bcha", "C27:bhor", "C30:bsol");
+  private final Heuristic heuristic = new Heuristic();
+
+  /** Times out after numbers of nodes, counted over all the threads. */
+  private static class NodeTimer implements Timer {
+    private final AtomicLong nodeCount = new AtomicLong();
+    private final long softNodes;
+    private final long hardNodes;
+
+    NodeTimer(long softNodes, long hardNodes) {
+      this.softNodes = softNodes;
+      this.hardNodes = hardNodes;
+    }
+
+    @Override
+    public boolean didTimeout() {
+      return nodeCount.incrementAndGet() >= hardNodes;
+    }
+
+    @Override
+    public boolean didSoftTimeout() {
+      return nodeCount.get() >= softNodes;
+    }
+  }
+
+  @Test
+  public void testQueuedWorldsAreSearchedToTheSameDepth() {
+    for (PimcSearch.Aggregation aggregation : PimcSearch.Aggregation.values()) {
+      PimcSearch pimcSearch = new PimcSearch(heuristic, WORLD_COUNT, PARALLELISM, aggregation);
+      try {
+        Move bestMove = pimcSearch.findBestMove(state, MAX_DEPTH, new NodeTimer(NODES, NO_LIMIT));
+        // The soft deadline lets the worlds go past the first depths
+        assertTrue(pimcSearch.getCompletedDepth() >= 3);
+        assertBestAtDepth(bestMove, pimcSearch.getCompletedDepth());
+      } finally {
+        pimcSearch.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void testInterruptedDepthIsNotCombined() {
+    for (PimcSearch.Aggregation aggregation : PimcSearch.Aggregation.values()) {
+      PimcSearch pimcSearch = new PimcSearch(heuristic, WORLD_COUNT, PARALLELISM, aggregation);
+      try {
+        NodeTimer timer = new NodeTimer(NO_LIMIT, NODES);
+        Move bestMove = pimcSearch.findBestMove(state, MAX_DEPTH, timer);
+        // The hard deadline interrupted a depth, which is left out
+        assertTrue(timer.didTimeout());
+        assertTrue(pimcSearch.getCompletedDepth() >= 1);
+        assertBestAtDepth(bestMove, pimcSearch.getCompletedDepth());
+      } finally {
+        pimcSearch.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void testNoCompletedDepth() {
+    PimcSearch pimcSearch =
+        new PimcSearch(heuristic, WORLD_COUNT, PARALLELISM, PimcSearch.Aggregation.SCORE);
+    try {
+      Move bestMove = pimcSearch.findBestMove(state, MAX_DEPTH, new NodeTimer(NO_LIMIT, 1));
+      assertEquals(0, pimcSearch.getCompletedDepth());
+      assertTrue(new StateExplorerImpl().getPossibleMoves(state).contains(bestMove));
+    } finally {
+      pimcSearch.shutdown();
+    }
+  }
+
+  /** Assert that the move has the best score of a single search of the depth. */
+  private void assertBestAtDepth(Move move, int depth) {
+    Map<Move, Integer> moveScores = new AlphaBetaPruning(heuristic, state)
+        .findMoveScores(depth, SearchClock.withNodeBudget(NO_LIMIT));
+    assertEquals(Collections.max(moveScores.values()), moveScores.get(move));
+  }
+}
@@ -0,0 +1,188 @@
+package org.banqi.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BitBoardTest {
+
+  StateExplorerImpl stateExplorer = new StateExplorerImpl();
+  BanqiLogic banqiLogic = new BanqiLogic();
+
+  private final String rId = "7";
+  private final String bId = "47";
+  private final List<String> playerIds = Lists.newArrayList(rId, bId);
+
+  /*
+   * {C0 |C1 |C2 |C3 |   |   |   |   }
+   * {C8 |   |C10|   |   |   |   |   }
+   * {C16|   |   |   |   |   |   |   }
+   * {C24|   |   |   |   |   |   |   }
+   */
+  private BanqiState getState(Color turnOfColor) {
+    Map<String, Object> gameApiState = StateExplorerTest.getEmptyBoardState();
+    gameApiState.put("C0", "rcan");
+    gameApiState.put("C1", "bsol");
+    gameApiState.put("C2", null);
+    gameApiState.put("C3", "bgen");
+    gameApiState.put("C8", null);
+    gameApiState.put("C10", "rsol");
+    gameApiState.put("C16", "badv");
+    gameApiState.put("C24", "bcan");
+    gameApiState.put("O", ImmutableList.of("rhor", "bcha"));
+    return banqiLogic.gameApiStateToBanqiState(gameApiState, turnOfColor, playerIds);
+  }
+
+  @Test
+  public void testConvertToAndFromState() {
+    BanqiState state = getState(Color.R);
+    BanqiState convertedState = BitBoard.fromState(state).toState();
+
+    assertEquals(state.getCells(), convertedState.getCells());
+    assertEquals(state.getCapturedPieces(), convertedState.getCapturedPieces());
+    assertEquals(state.getTurn(), convertedState.getTurn());
+    assertEquals(state.getPlayerIds(), convertedState.getPlayerIds());
+  }
+
+  @Test
+  public void testSharedPiecesAndPositions() {
+    BanqiState convertedState = BitBoard.fromState(getState(Color.R)).toState();
+
+    assertSame(Piece.of(Piece.Kind.CANNON, Piece.PieceColor.RED),
+        convertedState.getCells().get(0).get());
+    assertSame(Piece.of(Piece.Kind.EMPTY, Piece.PieceColor.EMPTY),
+        convertedState.getCells().get(4).get());
+    assertEquals(new Piece(Piece.Kind.CANNON, Piece.PieceColor.RED),
+        Piece.of(Piece.Kind.CANNON, Piece.PieceColor.RED));
+    assertFalse(new Piece(Piece.Kind.CANNON).equals(
+        Piece.of(Piece.Kind.CANNON, Piece.PieceColor.RED)));
+    assertSame(Position.of(4, 8), Position.of(4, 8));
+    assertEquals(new Position(4, 8).hashCode(), Position.of(4, 8).hashCode());
+    assertEquals(new Position(0, 1), Position.of(0, 1));
+  }
+
+  @Test
+  public void testMasks() {
+    BitBoard board = BitBoard.fromState(getState(Color.R));
+
+    assertEquals((1 << 2) | (1 << 8), board.getFaceDownMask());
+    assertEquals((1 << 0) | (1 << 10), board.getColorMask(0));
+    assertEquals((1 << 1) | (1 << 3) | (1 << 16) | (1 << 24), board.getColorMask(1));
+    assertEquals(1 << 3, board.getPieceMask(
+        BitBoard.code(Piece.Kind.GENERAL, Piece.PieceColor.BLACK)));
+    assertEquals(~((1 << 0) | (1 << 1) | (1 << 2) | (1 << 3) | (1 << 8)
+        | (1 << 10) | (1 << 16) | (1 << 24)), board.getEmptyMask());
+    assertEquals(2, board.getCapturedCount());
+  }
+
+  @Test
+  public void testPossibleMovesOfRed() {
+    BanqiState state = getState(Color.R);
+    assertEquals(stateExplorer.getPossibleMoves(state),
+        stateExplorer.getPossibleMoves(BitBoard.fromState(state)));
+  }
+
+  @Test
+  public void testPossibleMovesOfBlack() {
+    BanqiState state = getState(Color.B);
+    assertEquals(stateExplorer.getPossibleMoves(state),
+        stateExplorer.getPossibleMoves(BitBoard.fromState(state)));
+  }
+
+  @Test
+  public void testCapturePiece() {
+    BitBoard board = BitBoard.fromState(getState(Color.R));
+    // The red cannon jumps over C8 and captures the black advisor
+    board.capturePiece(0, 16);
+
+    assertEquals(BitBoard.EMPTY, board.getCell(0));
+    assertEquals(BitBoard.code(Piece.Kind.CANNON, Piece.PieceColor.RED), board.getCell(16));
+    assertEquals(3, board.getCapturedCount());
+    assertEquals(BitBoard.code(Piece.Kind.ADVISOR, Piece.PieceColor.BLACK),
+        board.getCapturedPiece(2));
+    assertEquals(0, board.getPieceMask(
+        BitBoard.code(Piece.Kind.ADVISOR, Piece.PieceColor.BLACK)));
+    assertEquals((1 << 10) | (1 << 16), board.getColorMask(0));
+  }
+
+  @Test
+  public void testDoAndUndoMoves() {
+    BanqiState state = getState(Color.R);
+    BitBoard board = BitBoard.fromState(state);
+    int redHorse = BitBoard.code(Piece.Kind.HORSE, Piece.PieceColor.RED);
+
+    board.doMove(0, 16, Move.Type.CAPTURE, BitBoard.FACE_DOWN);
+    board.doMove(8, 8, Move.Type.TURN, redHorse);
+    board.doMove(10, 11, Move.Type.MOVE, BitBoard.FACE_DOWN);
+    assertEquals(3, board.getUndoCount());
+    assertEquals(redHorse, board.getCell(8));
+    assertEquals(Color.B, board.getTurn());
+    assertEquals(BitBoard.fromState(board.toState()).getKey(), board.getKey());
+
+    board.undoMove();
+    board.undoMove();
+    board.undoMove();
+    BanqiState undoneState = board.toState();
+    assertEquals(0, board.getUndoCount());
+    assertEquals(state.getCells(), undoneState.getCells());
+    assertEquals(state.getCapturedPieces(), undoneState.getCapturedPieces());
+    assertEquals(state.getTurn(), undoneState.getTurn());
+    assertEquals(BitBoard.fromState(state).getFaceDownMask(), board.getFaceDownMask());
+    assertEquals(BitBoard.fromState(state).getEmptyMask(), board.getEmptyMask());
+    assertEquals(BitBoard.fromState(state).getKey(), board.getKey());
+  }
+
+  @Test
+  public void testInventory() {
+    BitBoard board = BitBoard.fromState(getState(Color.R));
+    int redHorse = BitBoard.code(Piece.Kind.HORSE, Piece.PieceColor.RED);
+    int blackAdvisor = BitBoard.code(Piece.Kind.ADVISOR, Piece.PieceColor.BLACK);
+    int blackSoldier = BitBoard.code(Piece.Kind.SOLDIER, Piece.PieceColor.BLACK);
+
+    assertEquals(1, board.getCapturedCount(redHorse));
+    assertEquals(0, board.getFaceUpCount(redHorse));
+    assertEquals(1, board.getFaceDownCount(redHorse));
+    assertEquals(1, board.getFaceUpCount(blackAdvisor));
+    assertEquals(1, board.getFaceDownCount(blackAdvisor));
+    assertEquals(4, board.getFaceDownCount(blackSoldier));
+    // The red horse and the black chariot are captured
+    assertEquals(-(-6 + 13), board.getMaterial());
+
+    board.doMove(0, 16, Move.Type.CAPTURE, BitBoard.FACE_DOWN);
+    board.doMove(8, 8, Move.Type.TURN, redHorse);
+    assertEquals(0, board.getFaceUpCount(blackAdvisor));
+    assertEquals(1, board.getCapturedCount(blackAdvisor));
+    assertEquals(1, board.getFaceUpCount(redHorse));
+    assertEquals(0, board.getFaceDownCount(redHorse));
+    assertEquals(-(-6 + 13 + 55), board.getMaterial());
+
+    board.undoMove();
+    board.undoMove();
+    assertEquals(1, board.getFaceUpCount(blackAdvisor));
+    assertEquals(1, board.getFaceDownCount(redHorse));
+    assertEquals(-(-6 + 13), board.getMaterial());
+  }
+
+  @Test
+  public void testKeyDependsOnTurn() {
+    assertFalse(BitBoard.fromState(getState(Color.R)).getKey()
+        == BitBoard.fromState(getState(Color.B)).getKey());
+  }
+
+  @Test
+  public void testWinner() {
+    BanqiState state = getState(Color.R);
+    assertEquals(state.getWinner(), BitBoard.fromState(state).getWinner());
+  }
+}
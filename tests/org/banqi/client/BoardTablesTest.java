@@ -0,0 +1,281 @@
+package org.banqi.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BoardTablesTest {
+
+  BanqiLogic banqiLogic = new BanqiLogic();
+
+  private static final int ROWS = 4;
+  private static final int COLS = 8;
+  private static final int CELLS = ROWS * COLS;
+  private static final Piece.Kind[] KINDS = {Piece.Kind.GENERAL, Piece.Kind.ADVISOR,
+      Piece.Kind.ELEPHANT, Piece.Kind.CHARIOT, Piece.Kind.HORSE, Piece.Kind.CANNON,
+      Piece.Kind.SOLDIER};
+
+  /**
+   * Returns the cells a cannon in the cell can jump to, walking each of the
+   * four directions cell by cell: the first occupied cell is the screen, the
+   * next one the target.
+   */
+  private static int walkCannonTargets(int cell, int occupiedMask) {
+    int[][] directions = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+    int targets = 0;
+    for (int[] direction : directions) {
+      boolean hasScreen = false;
+      int row = cell / COLS + direction[0];
+      int col = cell % COLS + direction[1];
+      while (row >= 0 && row < ROWS && col >= 0 && col < COLS) {
+        int next = row * COLS + col;
+        if ((occupiedMask & (1 << next)) != 0) {
+          if (hasScreen) {
+            targets |= 1 << next;
+            break;
+          }
+          hasScreen = true;
+        }
+        row += direction[0];
+        col += direction[1];
+      }
+    }
+    return targets;
+  }
+
+  /**
+   * The rank rules: a piece captures the pieces of its rank and below
+   * (general, advisor, elephant, chariot, horse, cannon, soldier), except
+   * that a soldier captures a general and a general does not capture a
+   * soldier. A cannon captures any piece by jumping.
+   */
+  private static boolean canCaptureByRank(Piece.Kind kind, Piece.Kind targetKind) {
+    if (kind == Piece.Kind.CANNON) {
+      return true;
+    } else if (kind == Piece.Kind.SOLDIER && targetKind == Piece.Kind.GENERAL) {
+      return true;
+    } else if (kind == Piece.Kind.GENERAL && targetKind == Piece.Kind.SOLDIER) {
+      return false;
+    }
+    return Arrays.asList(KINDS).indexOf(kind) <= Arrays.asList(KINDS).indexOf(targetKind);
+  }
+
+  private static List<Optional<Piece>> getEmptyCells() {
+    List<Optional<Piece>> cells = Lists.newArrayList();
+    for (int i = 0; i < CELLS; i++) {
+      cells.add(Optional.of(Piece.of(Piece.Kind.EMPTY, Piece.PieceColor.EMPTY)));
+    }
+    return cells;
+  }
+
+  @Test
+  public void testNeighbors() {
+    assertEquals(Arrays.asList(8, 1), toList(BoardTables.getNeighbors(0)));
+    assertEquals(Arrays.asList(23, 30), toList(BoardTables.getNeighbors(31)));
+    assertEquals(Arrays.asList(1, 17, 8, 10), toList(BoardTables.getNeighbors(9)));
+  }
+
+  @Test
+  public void testRays() {
+    int[][] rays = BoardTables.getRays(9);
+    assertEquals(Arrays.asList(1), toList(rays[0]));
+    assertEquals(Arrays.asList(17, 25), toList(rays[1]));
+    assertEquals(Arrays.asList(8), toList(rays[2]));
+    assertEquals(Arrays.asList(10, 11, 12, 13, 14, 15), toList(rays[3]));
+    assertEquals(0, BoardTables.getRays(0)[0].length);
+    assertEquals(0, BoardTables.getRays(0)[2].length);
+  }
+
+  @Test
+  public void testCannonTargetsAgainstRayWalk() {
+    Random random = new Random(20140501L);
+    for (int i = 0; i < 2000; i++) {
+      // From almost empty to almost full boards
+      int occupiedMask = random.nextInt() & random.nextInt();
+      if (i % 2 == 1) {
+        occupiedMask = random.nextInt() | random.nextInt();
+      }
+      for (int cell = 0; cell < CELLS; cell++) {
+        assertEquals("cell " + cell + " mask " + Integer.toHexString(occupiedMask),
+            walkCannonTargets(cell, occupiedMask),
+            BoardTables.getCannonTargets(cell, occupiedMask));
+      }
+    }
+  }
+
+  @Test
+  public void testCannonTargetsAtTheEdges() {
+    // A cannon in a corner jumps along the whole row and the whole column
+    int occupiedMask = (1 << 1) | (1 << 7) | (1 << 8) | (1 << 24);
+    assertEquals((1 << 7) | (1 << 24), BoardTables.getCannonTargets(0, occupiedMask));
+    occupiedMask = (1 << 30) | (1 << 24) | (1 << 23) | (1 << 7);
+    assertEquals((1 << 24) | (1 << 7), BoardTables.getCannonTargets(31, occupiedMask));
+    // The rows do not wrap around: cell 8 is not to the right of cell 7
+    occupiedMask = (1 << 6) | (1 << 8) | (1 << 9);
+    assertEquals(0, BoardTables.getCannonTargets(7, occupiedMask));
+  }
+
+  @Test
+  public void testCannonTargetsIgnoreTheColors() {
+    // The pieces of the cannon's color are screens and targets too, the
+    // move generator leaves out the targets of its own color
+    // (a red cannon in C0, red pieces in C1, C2 and C16, a black one in C8)
+    int occupiedMask = (1 << 0) | (1 << 1) | (1 << 2) | (1 << 8) | (1 << 16);
+    assertEquals((1 << 2) | (1 << 16), BoardTables.getCannonTargets(0, occupiedMask));
+  }
+
+  /*
+   * Test the cannon jumps of BoardTables and BanqiLogic.
+   *
+   * {C0 |C1 |C2 |C3 |C4 |C5 |C6 |C7 }
+   * {C8 |   |   |   |   |   |   |C15}
+   * {   |   |   |   |   |   |   |   }
+   * {C24|   |C26|   |   |   |   |C31}
+   */
+
+  private static Optional<Piece> piece(Piece.Kind kind, Piece.PieceColor pieceColor) {
+    return Optional.of(Piece.of(kind, pieceColor));
+  }
+
+  private static int getOccupiedMask(List<Optional<Piece>> cells) {
+    int occupiedMask = 0;
+    for (int i = 0; i < CELLS; i++) {
+      if (!cells.get(i).isPresent() || cells.get(i).get().getKind() != Piece.Kind.EMPTY) {
+        occupiedMask |= 1 << i;
+      }
+    }
+    return occupiedMask;
+  }
+
+  @Test
+  public void testCannonWithoutScreen() {
+    List<Optional<Piece>> cells = getEmptyCells();
+    cells.set(0, piece(Piece.Kind.CANNON, Piece.PieceColor.RED));
+    cells.set(3, piece(Piece.Kind.HORSE, Piece.PieceColor.BLACK));
+
+    assertEquals(0, BoardTables.getCannonTargets(0, getOccupiedMask(cells)));
+    assertFalse(banqiLogic.canCannonCapture(cells, 0, 3));
+  }
+
+  @Test
+  public void testCannonWithOneScreen() {
+    List<Optional<Piece>> cells = getEmptyCells();
+    cells.set(0, piece(Piece.Kind.CANNON, Piece.PieceColor.RED));
+    cells.set(2, piece(Piece.Kind.SOLDIER, Piece.PieceColor.RED));
+    cells.set(5, piece(Piece.Kind.GENERAL, Piece.PieceColor.BLACK));
+
+    assertEquals(1 << 5, BoardTables.getCannonTargets(0, getOccupiedMask(cells)));
+    assertTrue(banqiLogic.canCannonCapture(cells, 0, 5));
+    // The capture back the other way jumps over the same screen
+    assertEquals(1 << 0, BoardTables.getCannonTargets(5, getOccupiedMask(cells)));
+  }
+
+  @Test
+  public void testCannonWithTwoScreens() {
+    List<Optional<Piece>> cells = getEmptyCells();
+    cells.set(0, piece(Piece.Kind.CANNON, Piece.PieceColor.RED));
+    cells.set(1, piece(Piece.Kind.SOLDIER, Piece.PieceColor.RED));
+    cells.set(2, piece(Piece.Kind.HORSE, Piece.PieceColor.BLACK));
+    cells.set(5, piece(Piece.Kind.GENERAL, Piece.PieceColor.BLACK));
+
+    // The second piece is the target, the cannon cannot jump over two screens
+    assertEquals(1 << 2, BoardTables.getCannonTargets(0, getOccupiedMask(cells)));
+    assertTrue(banqiLogic.canCannonCapture(cells, 0, 2));
+    assertFalse(banqiLogic.canCannonCapture(cells, 0, 5));
+  }
+
+  @Test
+  public void testCannonOverFaceDownScreen() {
+    List<Optional<Piece>> cells = getEmptyCells();
+    cells.set(0, piece(Piece.Kind.CANNON, Piece.PieceColor.RED));
+    cells.set(1, Optional.<Piece>absent());
+    cells.set(4, piece(Piece.Kind.CHARIOT, Piece.PieceColor.BLACK));
+    cells.set(8, Optional.<Piece>absent());
+    cells.set(24, piece(Piece.Kind.ADVISOR, Piece.PieceColor.BLACK));
+
+    assertEquals((1 << 4) | (1 << 24), BoardTables.getCannonTargets(0, getOccupiedMask(cells)));
+    assertTrue(banqiLogic.canCannonCapture(cells, 0, 4));
+    assertTrue(banqiLogic.canCannonCapture(cells, 0, 24));
+  }
+
+  @Test
+  public void testCannonAtTheEdgeTargets() {
+    List<Optional<Piece>> cells = getEmptyCells();
+    cells.set(7, piece(Piece.Kind.CANNON, Piece.PieceColor.RED));
+    cells.set(15, piece(Piece.Kind.SOLDIER, Piece.PieceColor.BLACK));
+    cells.set(31, piece(Piece.Kind.ELEPHANT, Piece.PieceColor.BLACK));
+    cells.set(24, piece(Piece.Kind.CANNON, Piece.PieceColor.BLACK));
+    cells.set(26, piece(Piece.Kind.HORSE, Piece.PieceColor.RED));
+
+    // The last cell of a column and of a row
+    assertEquals(1 << 31, BoardTables.getCannonTargets(7, getOccupiedMask(cells)));
+    assertTrue(banqiLogic.canCannonCapture(cells, 7, 31));
+    assertEquals(1 << 31, BoardTables.getCannonTargets(24, getOccupiedMask(cells)));
+    assertTrue(banqiLogic.canCannonCapture(cells, 24, 31));
+    // Not the first cell of the next row
+    assertFalse(banqiLogic.canCannonCapture(cells, 7, 8));
+  }
+
+  @Test
+  public void testCanCaptureFollowsTheRanks() {
+    for (Piece.Kind kind : KINDS) {
+      for (Piece.Kind targetKind : KINDS) {
+        assertEquals(kind + " " + targetKind, canCaptureByRank(kind, targetKind),
+            BoardTables.canCapture(kind.ordinal(), targetKind.ordinal()));
+      }
+      assertFalse(BoardTables.canCapture(kind.ordinal(), Piece.Kind.EMPTY.ordinal()));
+    }
+  }
+
+  @Test
+  public void testSoldierAndGeneral() {
+    int general = Piece.Kind.GENERAL.ordinal();
+    int soldier = Piece.Kind.SOLDIER.ordinal();
+    assertTrue(BoardTables.canCapture(soldier, general));
+    assertFalse(BoardTables.canCapture(general, soldier));
+    assertTrue(BoardTables.canCapture(general, general));
+    assertTrue(BoardTables.canCapture(soldier, soldier));
+  }
+
+  @Test
+  public void testCanCaptureOfBanqiLogic() {
+    // An adjacent capture of every kind by every kind but the cannon, which
+    // only captures by jumping, in both directions
+    for (Piece.Kind kind : KINDS) {
+      if (kind == Piece.Kind.CANNON) {
+        continue;
+      }
+      for (Piece.Kind targetKind : KINDS) {
+        List<Optional<Piece>> cells = getEmptyCells();
+        cells.set(9, Optional.of(Piece.of(kind, Piece.PieceColor.RED)));
+        cells.set(10, Optional.of(Piece.of(targetKind, Piece.PieceColor.BLACK)));
+        assertEquals(kind + " " + targetKind, canCaptureByRank(kind, targetKind),
+            banqiLogic.canCapture(cells, 9, 10));
+        if (targetKind != Piece.Kind.CANNON) {
+          assertEquals(targetKind + " " + kind, canCaptureByRank(targetKind, kind),
+              banqiLogic.canCapture(cells, 10, 9));
+        }
+      }
+    }
+  }
+
+  private static List<Integer> toList(int[] cells) {
+    List<Integer> list = Lists.newArrayList();
+    for (int cell : cells) {
+      list.add(cell);
+    }
+    return list;
+  }
+}
@@ -0,0 +1,69 @@
+package org.banqi.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PackedMoveTest {
+
+  private static final int CELLS = 32;
+
+  private static Position toPosition(int cell) {
+    return new Position(cell / 8 + 1, cell % 8 + 1);
+  }
+
+  @Test
+  public void testRoundTripOfAllMoves() {
+    for (Move.Type type : Move.Type.values()) {
+      for (int from = 0; from < CELLS; from++) {
+        for (int to = 0; to < CELLS; to++) {
+          Move move = new Move(toPosition(from), toPosition(to), type);
+          int packedMove = PackedMove.fromMove(move);
+
+          assertEquals(from, PackedMove.getFrom(packedMove));
+          assertEquals(to, PackedMove.getTo(packedMove));
+          assertEquals(type, PackedMove.getType(packedMove));
+          assertEquals(type == Move.Type.CAPTURE, PackedMove.isCapture(packedMove));
+          assertEquals(type == Move.Type.TURN, PackedMove.isTurn(packedMove));
+          assertTrue(packedMove != PackedMove.NONE);
+          assertEquals(move, PackedMove.toMove(packedMove));
+          assertEquals(packedMove, PackedMove.fromMove(PackedMove.toMove(packedMove)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFactories() {
+    for (int from = 0; from < CELLS; from++) {
+      assertEquals(new Move(toPosition(from)), PackedMove.toMove(PackedMove.turn(from)));
+      for (int to = 0; to < CELLS; to++) {
+        assertEquals(new Move(toPosition(from), toPosition(to), Move.Type.MOVE),
+            PackedMove.toMove(PackedMove.move(from, to)));
+        assertEquals(new Move(toPosition(from), toPosition(to), Move.Type.CAPTURE),
+            PackedMove.toMove(PackedMove.capture(from, to)));
+      }
+    }
+  }
+
+  @Test
+  public void testSortByScoreKeepsTheOrderOfTies() {
+    int[] moves = {PackedMove.turn(0), PackedMove.move(1, 2), PackedMove.capture(3, 4),
+        PackedMove.turn(5), PackedMove.move(6, 7)};
+    int[] scores = {1, 5, 1, 9, 5};
+    PackedMove.sortByScore(moves, scores, 4);
+
+    assertEquals(PackedMove.turn(5), moves[0]);
+    assertEquals(PackedMove.move(1, 2), moves[1]);
+    assertEquals(PackedMove.turn(0), moves[2]);
+    assertEquals(PackedMove.capture(3, 4), moves[3]);
+    // Only the first count moves are sorted
+    assertEquals(PackedMove.move(6, 7), moves[4]);
+    assertEquals(9, scores[0]);
+    assertEquals(1, scores[3]);
+  }
+}
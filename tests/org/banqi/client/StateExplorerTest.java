@@ -1,14 +1,18 @@
 package org.banqi.client;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Test;
@@ -317,4 +321,140 @@ public class StateExplorerTest {
     // System.out.println(stateExplorer.getPossibleStartPositions(state));
     // System.out.println(t);
   }
+
+  /*
+   * Test the staged move generators and isPossibleMove of the bit board.
+   *
+   * {C0 |C1 |C2 |C3 |   |   |   |   }
+   * {C8 |   |C10|   |   |   |   |   }
+   * {C16|   |   |   |   |   |   |   }
+   * {C24|   |   |   |   |   |   |   }
+   */
+  private BitBoard getStagedBoard() {
+    Map<String, Object> gameApiState = getEmptyBoardState();
+    gameApiState.put("C0", "rcan");
+    gameApiState.put("C1", "bsol");
+    gameApiState.put("C2", null);
+    gameApiState.put("C3", "bgen");
+    gameApiState.put("C8", null);
+    gameApiState.put("C10", "rsol");
+    gameApiState.put("C16", "badv");
+    gameApiState.put("C24", "bcan");
+    gameApiState.put("O", ImmutableList.of("rhor", "bcha"));
+    return BitBoard.fromState(
+        banqiLogic.gameApiStateToBanqiState(gameApiState, turnOfColor, playerIds));
+  }
+
+  /** Returns the first count moves, sorted. */
+  private static int[] sorted(int[] moves, int count) {
+    int[] sortedMoves = Arrays.copyOf(moves, count);
+    Arrays.sort(sortedMoves);
+    return sortedMoves;
+  }
+
+  /**
+   * Check that the captures, the quiet moves and the turns of the board make
+   * up its possible moves, and that isPossibleMove accepts exactly them.
+   */
+  private void assertStagedMoves(BitBoard board) {
+    int[] moves = new int[PackedMove.MAX_MOVES];
+    int[] stagedMoves = new int[PackedMove.MAX_MOVES * 3];
+    int count = stateExplorer.getPossibleMoves(board, moves);
+    int stagedCount = stateExplorer.getPossibleCaptures(board, moves);
+    System.arraycopy(moves, 0, stagedMoves, 0, stagedCount);
+    for (int i = 0; i < stagedCount; i++) {
+      assertTrue(PackedMove.isCapture(stagedMoves[i]));
+    }
+    int quietCount = stateExplorer.getPossibleQuietMoves(board, moves);
+    for (int i = 0; i < quietCount; i++) {
+      assertEquals(Move.Type.MOVE, PackedMove.getType(moves[i]));
+    }
+    System.arraycopy(moves, 0, stagedMoves, stagedCount, quietCount);
+    stagedCount += quietCount;
+    int turnCount = stateExplorer.getPossibleTurns(board, moves);
+    for (int i = 0; i < turnCount; i++) {
+      assertTrue(PackedMove.isTurn(moves[i]));
+    }
+    System.arraycopy(moves, 0, stagedMoves, stagedCount, turnCount);
+    stagedCount += turnCount;
+
+    stateExplorer.getPossibleMoves(board, moves);
+    int[] possibleMoves = sorted(moves, count);
+    assertTrue(Arrays.equals(possibleMoves, sorted(stagedMoves, stagedCount)));
+
+    for (Move.Type type : Move.Type.values()) {
+      for (int from = 0; from < BitBoard.CELLS; from++) {
+        for (int to = 0; to < BitBoard.CELLS; to++) {
+          int move = from | to << 5 | type.ordinal() << 10;
+          assertEquals(Arrays.binarySearch(possibleMoves, move) >= 0,
+              stateExplorer.isPossibleMove(board, move));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testStagedMovesOfBothColors() {
+    BitBoard board = getStagedBoard();
+    assertStagedMoves(board);
+    board.doMove(8, 8, Move.Type.TURN,
+        BitBoard.code(Piece.Kind.HORSE, Piece.PieceColor.BLACK));
+    assertStagedMoves(board);
+  }
+
+  @Test
+  public void testStagedMovesOfRandomGames() {
+    Random random = new Random(20140501L);
+    int[] moves = new int[PackedMove.MAX_MOVES];
+    for (int game = 0; game < 20; game++) {
+      Map<String, Object> gameApiState = getEmptyBoardState();
+      for (int i = 0; i < BitBoard.CELLS; i++) {
+        gameApiState.put(C + i, null);
+      }
+      gameApiState.put("O", ImmutableList.of());
+      BitBoard board = BitBoard.fromState(
+          banqiLogic.gameApiStateToBanqiState(gameApiState, turnOfColor, playerIds));
+      for (int ply = 0; ply < 100 && board.getWinner() == Color.N; ply++) {
+        assertStagedMoves(board);
+        int count = stateExplorer.getPossibleMoves(board, moves);
+        if (count == 0) {
+          break;
+        }
+        int move = moves[random.nextInt(count)];
+        int turnedCode = BitBoard.FACE_DOWN;
+        if (PackedMove.isTurn(move)) {
+          // Reveal a random face down piece
+          do {
+            turnedCode = random.nextInt(BitBoard.PIECE_CODES);
+          } while (board.getFaceDownCount(turnedCode) == 0);
+        }
+        board.doMove(PackedMove.getFrom(move), PackedMove.getTo(move),
+            PackedMove.getType(move), turnedCode);
+      }
+    }
+  }
+
+  @Test
+  public void testIsPossibleMoveRejectsIllegalMoves() {
+    BitBoard board = getStagedBoard();
+
+    // A quiet move to an empty adjacent cell
+    assertTrue(stateExplorer.isPossibleMove(board, PackedMove.move(10, 11)));
+    // A quiet move to an occupied cell, face down or not
+    assertFalse(stateExplorer.isPossibleMove(board, PackedMove.move(10, 2)));
+    assertFalse(stateExplorer.isPossibleMove(board, PackedMove.move(0, 1)));
+    // A quiet move to a cell which is not adjacent
+    assertFalse(stateExplorer.isPossibleMove(board, PackedMove.move(10, 12)));
+    assertFalse(stateExplorer.isPossibleMove(board, PackedMove.move(10, 26)));
+    // A turn of a face down piece, not of a face up one
+    assertTrue(stateExplorer.isPossibleMove(board, PackedMove.turn(2)));
+    assertFalse(stateExplorer.isPossibleMove(board, PackedMove.turn(10)));
+    // The cannon jumps over C8 to C16, but C16 blocks the way to C24, and C1
+    // and C2 block the way to C3
+    assertTrue(stateExplorer.isPossibleMove(board, PackedMove.capture(0, 16)));
+    assertFalse(stateExplorer.isPossibleMove(board, PackedMove.capture(0, 24)));
+    assertFalse(stateExplorer.isPossibleMove(board, PackedMove.capture(0, 3)));
+    // A piece of the other player
+    assertFalse(stateExplorer.isPossibleMove(board, PackedMove.move(16, 17)));
+  }
 }